@@ -14,6 +14,7 @@ package info.koosah.jacarsdec;
  */
 public class AcarsCrc {
     private short crc;
+    private int attempts;
 
     private static final int[] CCITT_TABLE = {
             0x0000, 0x1189, 0x2312, 0x329b, 0x4624, 0x57ad, 0x6536, 0x74bf,
@@ -300,6 +301,7 @@ public class AcarsCrc {
      */
     public AcarsCrc() {
         crc = 0;
+        attempts = 0;
     }
 
     /**
@@ -311,6 +313,15 @@ public class AcarsCrc {
         return crc != 0;
     }
 
+    /**
+     * Return the current CRC value, low byte first when sent.
+     *
+     * @return          CRC value.
+     */
+    public int getValue() {
+        return crc & 0xffff;
+    }
+
     /**
      * Update the CRC with the specified byte.
      *
@@ -333,7 +344,17 @@ public class AcarsCrc {
         return doFixErrors(msg, crc, pr, start, length);
     }
 
+    /**
+     * Get the number of candidate corrections fixErrors has tried, for
+     * seeing how hard it had to work.
+     * @return          Count.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
     private boolean doFixErrors(byte[] msg, short c, int[] pr, int start, int length) {
+        attempts++;
         if (length > 0) {
             for (int i=0; i<8; i++) {
                 if (doFixErrors(msg,
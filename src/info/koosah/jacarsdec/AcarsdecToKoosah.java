@@ -7,7 +7,6 @@
 package info.koosah.jacarsdec;
 
 import java.io.*;
-import java.net.MalformedURLException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Date;
@@ -105,7 +104,7 @@ public class AcarsdecToKoosah {
         } else {
             try {
                 writer = new HttpOutputThread(chan, props);
-            } catch (IllegalArgumentException|MalformedURLException e) {
+            } catch (IllegalArgumentException|IOException e) {
                 System.err.format("%s: %s%n", MYNAME, getMessage(e));
                 System.exit(1);
             }
@@ -0,0 +1,77 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Feeds demodulated ACARS to an ApiServer, by rendering each message as
+ * JSON, adding it to the server's ring of recent messages, and passing it
+ * on to any event stream subscribers.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class ApiOutputThread extends Thread {
+    private MessageChannel<DemodMessage> in;
+    private ApiServer server;
+    private MessageRing ring;
+    private MessageJson json;
+
+    /* most messages we take from our input in one go */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Construct a new API writer.
+     * @param in        Channel to read messages from.
+     * @param server    Server to feed; it gets stopped when we exit.
+     * @param ring      The server's ring of recent messages.
+     */
+    public ApiOutputThread(MessageChannel<DemodMessage> in, ApiServer server, MessageRing ring) {
+        this.in = in;
+        this.server = server;
+        this.ring = ring;
+        json = new MessageJson();
+    }
+
+    /**
+     * Get the server we feed.
+     * @return          Server.
+     */
+    public ApiServer getServer() {
+        return server;
+    }
+
+    public void run() {
+        List<DemodMessage> batch = new ArrayList<DemodMessage>(BATCH_SIZE);
+        boolean done = false;
+        while (!done) {
+            batch.clear();
+            try {
+                in.drainTo(batch, BATCH_SIZE);
+            } catch (InterruptedException e) {
+                break;
+            }
+            for (DemodMessage m: batch) {
+                if (m == null) {
+                    done = true;
+                    break;
+                }
+                /* silently discard bad messages, as HttpOutputThread does */
+                JsonObjectBuilder builder = json.builder(m);
+                if (builder == null)
+                    continue;
+                /* we're the only writer, so this is the number it will get */
+                builder.add("seq", ring.getLast() + 1);
+                server.publish(ring.add(m, builder.build().toString()));
+            }
+        }
+        server.stop();
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP server, using the one built into the JDK, that lets
+ * dashboards and the like read recent messages straight from this
+ * receiver. GET /messages returns a JSON object:
+ *
+ *   { "last": n, "oldest": n, "next": n, "messages": [ ... ] }
+ *
+ * where last and oldest are the newest and oldest sequence numbers held,
+ * and next is what to pass as since= to get what comes after these
+ * messages. The query parameters since, registration, flight, label,
+ * channel, and limit select which messages are returned. Each response
+ * carries an ETag that changes whenever a message arrives, so clients
+ * that poll with If-None-Match get a cheap 304 when nothing's new.
+ *
+ * GET /events takes the same filtering parameters, and streams matching
+ * messages as they arrive, as Server-Sent Events whose IDs are sequence
+ * numbers. Each subscriber has a buffer of its own; one that falls too
+ * far behind is disconnected, rather than ever being waited for. A
+ * subscriber that reconnects with Last-Event-ID first gets what it
+ * missed, as far as the ring still holds it.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class ApiServer {
+    private HttpServer server;
+    private ExecutorService executor;
+    private MessageRing ring;
+    private int maxSubscribers;
+    private int queueSize;
+    private CopyOnWriteArrayList<Subscriber> subscribers;
+    private AtomicLong dropped;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int DEFAULT_LIMIT = 100;
+
+    /* how often to send something to idle subscribers, to notice dead ones (ms) */
+    private static final long KEEPALIVE = 15000;
+
+    /* put in a subscriber's queue to tell it to disconnect */
+    private static final MessageRing.Entry KICK = new MessageRing.Entry();
+
+    /**
+     * Construct a new server. It won't accept requests until started.
+     * @param addr      Address to listen on.
+     * @param ring      Where recent messages are kept.
+     * @param maxSubscribers  Most event stream subscribers at once.
+     * @param queueSize Messages buffered per subscriber before it's
+     *                  deemed too slow and disconnected.
+     */
+    public ApiServer(InetSocketAddress addr, MessageRing ring, int maxSubscribers, int queueSize) throws IOException {
+        this.ring = ring;
+        this.maxSubscribers = maxSubscribers;
+        this.queueSize = queueSize;
+        subscribers = new CopyOnWriteArrayList<Subscriber>();
+        dropped = new AtomicLong(0);
+        server = HttpServer.create(addr, 0);
+        /* each subscriber ties up a thread for as long as it's connected */
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "ApiServer");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/messages", this::messages);
+        server.createContext("/events", this::events);
+    }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop accepting requests.
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Pass a newly arrived message on to event stream subscribers. Never
+     * blocks; subscribers with no room left get disconnected.
+     * @param e         Message, as added to the ring.
+     */
+    public void publish(MessageRing.Entry e) {
+        for (Subscriber sub: subscribers) {
+            if (!sub.filter.matches(e) || sub.queue.offer(e))
+                continue;
+            /* we're the only writer, so after clearing, there's room */
+            subscribers.remove(sub);
+            sub.queue.clear();
+            sub.queue.offer(KICK);
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the number of event stream subscribers currently connected.
+     * @return          Count.
+     */
+    public int getSubscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * Get the number of event stream subscribers disconnected for being
+     * too slow.
+     * @return          Count.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Parse a [host:]port specification.
+     * @param spec      What to parse.
+     * @return          Address; all local addresses if no host given.
+     */
+    public static InetSocketAddress parseAddress(String spec) {
+        int colon = spec.lastIndexOf(':');
+        try {
+            int port = Integer.parseInt(spec.substring(colon + 1));
+            if (colon < 0)
+                return new InetSocketAddress(port);
+            return new InetSocketAddress(spec.substring(0, colon), port);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad address - " + spec);
+        }
+    }
+
+    private void messages(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, null);
+                return;
+            }
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            long since = toLong(params.get("since"), 0L);
+            MessageRing.Filter filter = toFilter(params);
+            int limit = (int) Math.min(Integer.MAX_VALUE, toLong(params.get("limit"), DEFAULT_LIMIT));
+            if (limit < 1)
+                throw new IllegalArgumentException("invalid limit - " + limit);
+
+            /* nothing new since the client last looked? say so cheaply */
+            long last = ring.getLast();
+            String etag = "\"" + last + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            String match = exchange.getRequestHeaders().getFirst("If-None-Match");
+            if (match != null && match.contains(etag)) {
+                send(exchange, 304, null);
+                return;
+            }
+
+            /* stop at last, so what we return agrees with the ETag */
+            List<MessageRing.Entry> found = ring.find(since, last, filter, limit);
+            /* if we stopped short, resume from the last one returned */
+            long next = found.size() < limit ? last : found.get(found.size() - 1).seq;
+            StringBuilder out = new StringBuilder();
+            out.append("{\"last\":").append(last)
+                .append(",\"oldest\":").append(ring.getOldest())
+                .append(",\"next\":").append(Math.max(next, since))
+                .append(",\"messages\":[");
+            for (int i=0; i<found.size(); i++) {
+                if (i > 0)
+                    out.append(',');
+                out.append(found.get(i).json);
+            }
+            out.append("]}");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            send(exchange, 200, out.toString().getBytes(UTF8));
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, (Main.getMessage(e) + "\n").getBytes(UTF8));
+        }
+    }
+
+    private void events(HttpExchange exchange) throws IOException {
+        Subscriber sub;
+        long since;
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, null);
+                return;
+            }
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            /* a reconnecting client tells us the last event it got */
+            String lastId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            since = lastId == null ? -1L : toLong(lastId.trim(), 0L);
+            sub = new Subscriber(toFilter(params), queueSize);
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, (Main.getMessage(e) + "\n").getBytes(UTF8));
+            return;
+        }
+        synchronized (subscribers) {
+            if (subscribers.size() >= maxSubscribers) {
+                send(exchange, 503, "too many subscribers\n".getBytes(UTF8));
+                return;
+            }
+            subscribers.add(sub);
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        StringBuilder out = new StringBuilder();
+        try (OutputStream body = exchange.getResponseBody()) {
+            /*
+             * We subscribed first, so nothing falls in the gap between
+             * catching up and going live; anything both caught up on and
+             * queued gets skipped.
+             */
+            long sent = since < 0 ? ring.getLast() : since;
+            for (MessageRing.Entry e: ring.find(sent, Long.MAX_VALUE, sub.filter, Integer.MAX_VALUE)) {
+                event(out, e);
+                sent = e.seq;
+            }
+            /* an initial comment gets the headers out to the client now */
+            out.append(":\n\n");
+            while (true) {
+                body.write(out.toString().getBytes(UTF8));
+                body.flush();
+                out.setLength(0);
+                MessageRing.Entry e = sub.queue.poll(KEEPALIVE, TimeUnit.MILLISECONDS);
+                if (e == KICK)
+                    break;
+                if (e == null) {
+                    out.append(":\n\n");
+                    continue;
+                }
+                /* send everything that's waiting in one go */
+                do {
+                    if (e == KICK)
+                        return;
+                    if (e.seq > sent)
+                        event(out, e);
+                } while ((e = sub.queue.poll()) != null);
+            }
+        } catch (IOException|InterruptedException e) {
+            /* the client went away, or we're stopping */
+        } finally {
+            subscribers.remove(sub);
+            exchange.close();
+        }
+    }
+
+    private void event(StringBuilder out, MessageRing.Entry e) {
+        out.append("id: ").append(e.seq).append('\n')
+            .append("data: ").append(e.json).append("\n\n");
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        exchange.close();
+    }
+
+    private Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> ret = new HashMap<String, String>();
+        if (query == null)
+            return ret;
+        for (String param: query.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq < 0)
+                continue;
+            ret.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+                    URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+        }
+        return ret;
+    }
+
+    private MessageRing.Filter toFilter(Map<String, String> params) {
+        return new MessageRing.Filter(params.get("registration"), params.get("flight"),
+                params.get("label"), (int) toLong(params.get("channel"), -1L));
+    }
+
+    private long toLong(String raw, long def) {
+        if (raw == null)
+            return def;
+        try {
+            return Long.parseLong(raw);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number - " + raw);
+        }
+    }
+
+    private static class Subscriber {
+        public MessageRing.Filter filter;
+        public ArrayBlockingQueue<MessageRing.Entry> queue;
+
+        public Subscriber(MessageRing.Filter filter, int queueSize) {
+            this.filter = filter;
+            queue = new ArrayBlockingQueue<MessageRing.Entry>(queueSize);
+        }
+    }
+}
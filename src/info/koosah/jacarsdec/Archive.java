@@ -0,0 +1,414 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A long-term store of demodulated messages that can be searched by
+ * registration, flight ID, label, and time received, without needing a
+ * database server.
+ *
+ * Messages are appended to a log, split into numbered segments. Each
+ * record is a length followed by a message, serialized with
+ * DemodMessage.CODEC. When a segment fills (or is a day old), it is
+ * sealed: indexes for it are written, and a new segment started. Sealed
+ * segments are never changed again, only deleted once all they hold is
+ * older than the retention period. The segment being written to has no
+ * indexes yet, so searches just scan it.
+ *
+ * Only one process may write to an archive, but any number may search
+ * it while that is happening.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class Archive {
+    private static final String LOG = ".log";
+    private static final String TIMES = ".tix";
+    private static final String REGISTRATIONS = ".rix";
+    private static final String FLIGHTS = ".fix";
+    private static final String LABELS = ".lix";
+
+    /* the longest a segment stays open, so retention can work on slow days */
+    private static final long SEGMENT_AGE = 24L * 60L * 60L * 1000L;
+
+    private File dir;
+    private long segSize;
+    private long retention;
+
+    /* the segment being written, if we are writing */
+    private long seg;
+    private FileChannel log;
+    private long logSize;
+    private long segStart;
+    private ByteBuffer buf;
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream data;
+    private TimeIndex.Builder times;
+    private TermIndex.Builder registrations, flights, labels;
+
+    /* called with each record found when scanning a log */
+    private interface Visitor {
+        /* return false to stop scanning */
+        public boolean visit(DemodMessage m, int offset);
+    }
+
+    /**
+     * Open an archive for searching only.
+     * @param dir       Directory the archive is in.
+     */
+    public Archive(File dir) throws IOException {
+        if (!dir.isDirectory())
+            throw new IOException("no archive in " + dir);
+        this.dir = dir;
+        log = null;
+    }
+
+    /**
+     * Open an archive for writing (and searching), creating it if need be.
+     * @param dir       Directory to keep the archive in.
+     * @param segSize   Size at which to start a new segment (bytes).
+     * @param retention How long to keep messages (ms).
+     */
+    public Archive(File dir, long segSize, long retention) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("unable to create " + dir);
+        if (segSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("segment size too large: " + segSize);
+        this.dir = dir;
+        this.segSize = segSize;
+        this.retention = retention;
+        buf = ByteBuffer.allocate(64 * 1024);
+        bytes = new ByteArrayOutputStream();
+        data = new DataOutputStream(bytes);
+
+        /*
+         * Pick up where we left off. Normally only the last segment is
+         * unsealed, but a crash while sealing can leave another one so.
+         */
+        long[] segs = segments();
+        seg = segs.length == 0 ? 0 : segs[segs.length - 1];
+        newBuilders();
+        logSize = 0;
+        for (long s: segs) {
+            if (file(s, TIMES).exists())
+                continue;
+            newBuilders();
+            logSize = scan(s, (m, offset) -> {
+                index(m, offset);
+                return true;
+            });
+            if (s != seg)
+                seal(s);
+        }
+        if (segs.length > 0 && file(seg, TIMES).exists()) {
+            seg++;
+            newBuilders();
+            logSize = 0;
+        }
+        log = FileChannel.open(file(seg, LOG).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        /* discard anything partly written when we last stopped */
+        log.truncate(logSize);
+        log.position(logSize);
+        segStart = System.currentTimeMillis();
+        expire();
+    }
+
+    private void newBuilders() {
+        times = new TimeIndex.Builder();
+        registrations = new TermIndex.Builder();
+        flights = new TermIndex.Builder();
+        labels = new TermIndex.Builder();
+    }
+
+    private void index(DemodMessage m, int offset) {
+        times.add(m.getTime().getTime(), offset);
+        if (m.parse()) {
+            registrations.add(m.getRegistration(), offset);
+            flights.add(m.getFlightId(), offset);
+            labels.add(m.getLabel(), offset);
+        }
+    }
+
+    /**
+     * Append a message. It may only be buffered; call flush() or sync()
+     * to ensure it gets written.
+     * @param m         Message to append.
+     */
+    public void append(DemodMessage m) throws IOException {
+        bytes.reset();
+        DemodMessage.CODEC.encode(m, data);
+        int len = bytes.size();
+        if (logSize > 0 && (logSize + 4 + len > segSize || System.currentTimeMillis() - segStart > SEGMENT_AGE))
+            rotate();
+        if (buf.remaining() < 4 + len) {
+            flush();
+            if (buf.capacity() < 4 + len)
+                buf = ByteBuffer.allocate(4 + len);
+        }
+        buf.putInt(len);
+        buf.put(bytes.toByteArray());
+        index(m, (int) logSize);
+        logSize += 4 + len;
+    }
+
+    /**
+     * Write out any buffered messages.
+     */
+    public void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            log.write(buf);
+        buf.clear();
+    }
+
+    /**
+     * Write out any buffered messages, and force them to disk.
+     */
+    public void sync() throws IOException {
+        flush();
+        log.force(false);
+    }
+
+    /**
+     * Write out any buffered messages and stop writing. The current
+     * segment is left unsealed, to be continued next time.
+     */
+    public void close() throws IOException {
+        if (log == null)
+            return;
+        sync();
+        log.close();
+        log = null;
+    }
+
+    private void rotate() throws IOException {
+        sync();
+        log.close();
+        seal(seg);
+        seg++;
+        newBuilders();
+        log = FileChannel.open(file(seg, LOG).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        log.truncate(0);
+        logSize = 0;
+        segStart = System.currentTimeMillis();
+        expire();
+    }
+
+    /* the time index gets written last; its presence marks a sealed segment */
+    private void seal(long s) throws IOException {
+        registrations.write(file(s, REGISTRATIONS));
+        flights.write(file(s, FLIGHTS));
+        labels.write(file(s, LABELS));
+        times.write(file(s, TIMES));
+    }
+
+    private void expire() throws IOException {
+        long cutoff = System.currentTimeMillis() - retention;
+        for (long s: segments()) {
+            File tix = file(s, TIMES);
+            if (s == seg || !tix.exists())
+                continue;
+            TimeIndex t = new TimeIndex(tix);
+            if (t.size() > 0 && t.last() >= cutoff)
+                continue;
+            /* unseal it first, so searches don't use half-deleted indexes */
+            tix.delete();
+            file(s, REGISTRATIONS).delete();
+            file(s, FLIGHTS).delete();
+            file(s, LABELS).delete();
+            file(s, LOG).delete();
+        }
+    }
+
+    /**
+     * Search for messages. Criteria that are null are not used. Results
+     * are returned in the order they were archived.
+     * @param registration  Aircraft registration.
+     * @param flightId  Flight ID.
+     * @param label     Message label.
+     * @param from      Earliest time received (ms since the epoch).
+     * @param to        Latest time received (ms since the epoch).
+     * @param limit     Maximum number of messages to return.
+     * @return          Messages found.
+     */
+    public List<DemodMessage> query(String registration, String flightId, String label,
+            long from, long to, int limit) throws IOException {
+        String reg = TermIndex.normalize(registration);
+        String flight = TermIndex.normalize(flightId);
+        String lab = TermIndex.normalize(label);
+        List<DemodMessage> ret = new ArrayList<DemodMessage>();
+        Visitor matcher = (m, offset) -> {
+            long time = m.getTime().getTime();
+            if (time >= from && time <= to && matches(m, reg, flight, lab))
+                ret.add(m);
+            return ret.size() < limit;
+        };
+        for (long s: segments()) {
+            if (ret.size() >= limit)
+                break;
+            try {
+                File tix = file(s, TIMES);
+                if (!tix.exists()) {
+                    scan(s, matcher);
+                    continue;
+                }
+                TimeIndex t = new TimeIndex(tix);
+                if (t.size() == 0 || t.last() < from || t.first() > to)
+                    continue;
+                int[] offsets = null;
+                if (reg != null)
+                    offsets = intersect(offsets, new TermIndex(file(s, REGISTRATIONS)).lookup(reg));
+                if (flight != null)
+                    offsets = intersect(offsets, new TermIndex(file(s, FLIGHTS)).lookup(flight));
+                if (lab != null)
+                    offsets = intersect(offsets, new TermIndex(file(s, LABELS)).lookup(lab));
+                if (offsets == null)
+                    offsets = t.range(from, to);
+                if (offsets.length > 0)
+                    fetch(s, offsets, matcher);
+            } catch (IOException e) {
+                /* expired out from under us; anything else, complain */
+                if (file(s, LOG).exists())
+                    throw e;
+            }
+        }
+        return ret;
+    }
+
+    private boolean matches(DemodMessage m, String reg, String flight, String lab) {
+        if (reg == null && flight == null && lab == null)
+            return true;
+        if (!m.parse())
+            return false;
+        return (reg == null || reg.equals(TermIndex.normalize(m.getRegistration()))) &&
+            (flight == null || flight.equals(TermIndex.normalize(m.getFlightId()))) &&
+            (lab == null || lab.equals(TermIndex.normalize(m.getLabel())));
+    }
+
+    /* both arrays are sorted; a null first array means "everything" */
+    private int[] intersect(int[] a, int[] b) {
+        if (a == null)
+            return b;
+        int[] ret = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                ret[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(ret, n);
+    }
+
+    private MappedByteBuffer map(long s) throws IOException {
+        try (FileChannel chan = FileChannel.open(file(s, LOG).toPath(), StandardOpenOption.READ)) {
+            return chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+        }
+    }
+
+    private DemodMessage decode(MappedByteBuffer mbuf, int pos, int len) throws IOException {
+        byte[] rec = new byte[len];
+        mbuf.position(pos);
+        mbuf.get(rec);
+        return DemodMessage.CODEC.decode(new DataInputStream(new ByteArrayInputStream(rec)));
+    }
+
+    /* read the records at the given offsets */
+    private void fetch(long s, int[] offsets, Visitor visitor) throws IOException {
+        MappedByteBuffer mbuf = map(s);
+        for (int offset: offsets) {
+            int len = mbuf.getInt(offset);
+            if (!visitor.visit(decode(mbuf, offset + 4, len), offset))
+                return;
+        }
+    }
+
+    /* read every record, returning where the last complete one ends */
+    private long scan(long s, Visitor visitor) throws IOException {
+        MappedByteBuffer mbuf = map(s);
+        int size = mbuf.capacity();
+        int pos = 0;
+        while (pos + 4 <= size) {
+            int len = mbuf.getInt(pos);
+            if (len <= 0 || len > size - pos - 4)
+                break;
+            DemodMessage m;
+            try {
+                m = decode(mbuf, pos + 4, len);
+            } catch (IOException e) {
+                /* a garbled record; treat it as the end */
+                break;
+            }
+            if (!visitor.visit(m, pos))
+                break;
+            pos += 4 + len;
+        }
+        return pos;
+    }
+
+    private long[] segments() {
+        String[] names = dir.list();
+        if (names == null)
+            return new long[0];
+        long[] ret = new long[names.length];
+        int n = 0;
+        for (String name: names) {
+            if (!name.endsWith(LOG))
+                continue;
+            try {
+                ret[n] = Long.parseLong(name.substring(0, name.length() - LOG.length()));
+                n++;
+            } catch (NumberFormatException e) {
+                /* not one of ours */
+            }
+        }
+        ret = Arrays.copyOf(ret, n);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private File file(long s, String suffix) {
+        return new File(dir, String.format("%016d%s", s, suffix));
+    }
+
+    /**
+     * Write a file so that it either appears complete or not at all.
+     * @param file      File to write.
+     * @param contents  What to write.
+     */
+    static void writeFile(File file, ByteBuffer contents) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel chan = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (contents.hasRemaining())
+                chan.write(contents);
+            chan.force(false);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write demodulated ACARS to an Archive, so it may be searched later
+ * (see ArchiveQuery). As with JsonFileOutputThread, writes are forced to
+ * disk in groups, at most once per sync interval.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class ArchiveOutputThread extends Thread {
+    private MessageChannel<DemodMessage> in;
+    private Archive archive;
+    private long syncInterval;
+    private boolean dirty;
+    private long lastSync;
+
+    /* most messages we take from our input in one go */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Construct a new archive writer.
+     * @param in        Channel to read messages from.
+     * @param archive   Archive, opened for writing.
+     * @param syncInterval  How often to force data to disk (ms).
+     */
+    public ArchiveOutputThread(MessageChannel<DemodMessage> in, Archive archive, long syncInterval) {
+        this.in = in;
+        this.archive = archive;
+        this.syncInterval = syncInterval;
+        dirty = false;
+        lastSync = System.currentTimeMillis();
+    }
+
+    public void run() {
+        List<DemodMessage> batch = new ArrayList<DemodMessage>(BATCH_SIZE);
+        boolean done = false;
+        try {
+            while (!done) {
+                batch.clear();
+                /* if there's unsynced data, don't wait past when it's due */
+                if (dirty)
+                    in.drainTo(batch, BATCH_SIZE, Math.max(1L, lastSync + syncInterval - System.currentTimeMillis()));
+                else
+                    in.drainTo(batch, BATCH_SIZE);
+                for (DemodMessage m: batch) {
+                    if (m == null) {
+                        done = true;
+                        break;
+                    }
+                    archive.append(m);
+                    dirty = true;
+                }
+                archive.flush();
+                if (dirty && System.currentTimeMillis() - lastSync >= syncInterval) {
+                    archive.sync();
+                    dirty = false;
+                    lastSync = System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException e) {
+            /* just exit */
+        } catch (IOException e) {
+            System.err.format("%s: unable to write archive - %s%n", Main.MYNAME, Main.getMessage(e));
+        }
+        try {
+            archive.close();
+        } catch (IOException e) {
+            System.err.format("%s: unable to close archive - %s%n", Main.MYNAME, Main.getMessage(e));
+        }
+    }
+}
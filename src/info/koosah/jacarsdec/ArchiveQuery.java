@@ -0,0 +1,121 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.commons.cli.*;
+
+/**
+ * Entry point for the utility that searches an archive written by
+ * Jacarsdec's --archive option. Matching messages are printed the same
+ * way Jacarsdec prints them to standard output.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class ArchiveQuery {
+
+    public static final String MYNAME = "ArchiveQuery";
+    public static CommandLine cmdLine;
+
+    /* the time formats we accept, most specific first; all are UTC */
+    private static final String[] TIME_FORMATS = {
+        "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd"
+    };
+
+    public static void main(String[] args) {
+        // Parse command-line options.
+        Options options = new Options();
+        options.addOption(new Option("f", "flight", true, "Flight ID to search for."));
+        options.addOption(new Option("h", "help", false, "Print this help message."));
+        options.addOption(new Option("l", "label", true, "Message label to search for."));
+        options.addOption(new Option("n", "limit", true, "Maximum number of messages to print."));
+        options.addOption(new Option("r", "registration", true, "Aircraft registration to search for."));
+        options.addOption(new Option(null, "from", true, "Earliest time received (UTC, yyyy-mm-ddThh:mm:ss)."));
+        options.addOption(new Option(null, "to", true, "Latest time received (UTC, yyyy-mm-ddThh:mm:ss)."));
+        try {
+            cmdLine = (new DefaultParser()).parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.err.println(MYNAME + ": " + Main.getMessage(e));
+            System.exit(2);
+        }
+        if (cmdLine.hasOption("help")) {
+            (new HelpFormatter()).printHelp(MYNAME + " [options] archive-directory", options);
+            System.exit(0);
+        }
+        String[] extraArgs = cmdLine.getArgs();
+        if (extraArgs.length != 1) {
+            System.err.println(MYNAME + ": expecting archive directory");
+            System.exit(2);
+        }
+
+        // Get search criteria
+        long from = toTime("from", Long.MIN_VALUE);
+        long to = toTime("to", Long.MAX_VALUE);
+        int limit = 100;
+        String rawLimit = cmdLine.getOptionValue("limit");
+        if (rawLimit != null) {
+            try {
+                limit = Integer.parseInt(rawLimit);
+            } catch (NumberFormatException e) {
+                System.err.format("%s: invalid value for --limit - %s%n", MYNAME, rawLimit);
+                System.exit(1);
+            }
+        }
+
+        // Search
+        List<DemodMessage> found = null;
+        try {
+            Archive archive = new Archive(new File(extraArgs[0]));
+            found = archive.query(cmdLine.getOptionValue("registration"), cmdLine.getOptionValue("flight"),
+                    cmdLine.getOptionValue("label"), from, to, limit);
+        } catch (IOException e) {
+            System.err.format("%s: unable to search archive - %s%n", MYNAME, Main.getMessage(e));
+            System.exit(1);
+        }
+
+        // Print what we found, just as Jacarsdec would have
+        Channel<DemodMessage> chan = new Channel<DemodMessage>(found.size() + 1);
+        Thread writer = new StandardOutputThread(chan);
+        writer.start();
+        for (DemodMessage m: found)
+            chan.write(m);
+        chan.write(null);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            /* exiting anyhow */
+        }
+    }
+
+    private static long toTime(String name, long def) {
+        String raw = cmdLine.getOptionValue(name);
+        if (raw == null)
+            return def;
+        String bare = raw.endsWith("Z") ? raw.substring(0, raw.length() - 1) : raw;
+        for (String format: TIME_FORMATS) {
+            SimpleDateFormat parser = new SimpleDateFormat(format);
+            parser.setTimeZone(TimeZone.getTimeZone("GMT"));
+            parser.setLenient(false);
+            /* insist the whole thing matches, not just a prefix */
+            ParsePosition pos = new ParsePosition(0);
+            Date parsed = parser.parse(bare, pos);
+            if (parsed != null && pos.getIndex() == bare.length())
+                return parsed.getTime();
+        }
+        System.err.format("%s: invalid value for --%s - %s%n", MYNAME, name, raw);
+        System.exit(1);
+        return -1;  /* here just to make Java happy */
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLContext;
+
+/**
+ * Like HttpOutputThread, but POSTs without waiting for responses, over
+ * persistent connections. This way one slow response from the server
+ * doesn't hold up everything else. The number of POSTs that may be
+ * outstanding at once is limited; once that many are, we wait.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class AsyncHttpOutputThread extends HttpOutputThread {
+    private int inFlight;
+    private Semaphore permits;
+    private HttpClient client;
+    private HttpRequest.Builder request;
+
+    /* default maximum number of outstanding POSTs */
+    private static final int IN_FLIGHT = 4;
+
+    /* how long to wait for outstanding POSTs when exiting (ms) */
+    private static final long FINISH_TIME = 60000;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public AsyncHttpOutputThread(MessageChannel<DemodMessage> in, Properties props) throws IOException {
+        super(in, props);
+        inFlight = (int) parseLong(props, "inflight", IN_FLIGHT);
+        if (inFlight < 1)
+            throw new IllegalArgumentException("inflight must be positive");
+        permits = new Semaphore(inFlight);
+        client = null;
+        try {
+            request = HttpRequest.newBuilder(getUrl().toURI())
+                    .timeout(Duration.ofSeconds(60))
+                    .header("Content-Type", "application/json; charset=utf-8")
+                    .header("User-Agent", Main.MYNAME);
+        } catch (URISyntaxException e) {
+            throw new MalformedURLException(e.getMessage());
+        }
+    }
+
+    /* the SSL context only gets set up once we start running */
+    private HttpClient getClient() {
+        if (client == null) {
+            HttpClient.Builder builder = HttpClient.newBuilder()
+                    .connectTimeout(Duration.ofSeconds(30));
+            SSLContext sslContext = getSslContext();
+            if (sslContext != null)
+                builder.sslContext(sslContext);
+            client = builder.build();
+        }
+        return client;
+    }
+
+    protected void post(String jString) throws Exception {
+        if (spoolIfBacklogged(jString))
+            return;
+        if (!allowed()) {
+            failed(jString);
+            return;
+        }
+        // Wait until there's room for another POST.
+        permits.acquire();
+        PostEvent event = new PostEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            HttpRequest req = request.copy()
+                    .POST(HttpRequest.BodyPublishers.ofString(jString, UTF8))
+                    .build();
+            getClient().sendAsync(req, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((resp, e) -> completed(req, jString, start, event, resp, e));
+        } catch (RuntimeException e) {
+            /* never got sent, so there's no callback to clean up after us */
+            try {
+                System.err.format("%s: POST failed - %s%n", Main.MYNAME, Main.getMessage(e));
+                record(false);
+                failed(jString);
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /* called when a POST completes, one way or the other */
+    private void completed(HttpRequest req, String jString, long start, PostEvent event,
+            HttpResponse<Void> resp, Throwable e) {
+        try {
+            observe(System.nanoTime() - start, e == null ? resp.statusCode() : 0);
+            if (event.shouldCommit()) {
+                event.url = req.uri().toString();
+                event.bytes = jString.getBytes(UTF8).length;
+                event.status = e == null ? resp.statusCode() : 0;
+                event.commit();
+            }
+            if (e != null) {
+                System.err.format("%s: POST failed - %s%n", Main.MYNAME, Main.getMessage(e));
+                record(false);
+                failed(jString);
+                return;
+            }
+            int status = resp.statusCode();
+            if (!(status >= 200 && status <= 299)) {
+                System.err.format("%s: got %03d response%n", Main.MYNAME, status);
+                if (retryable(status)) {
+                    record(false);
+                    failed(jString);
+                    return;
+                }
+            }
+            record(true);
+        } finally {
+            /* only now is this POST truly done with, as finish() expects */
+            permits.release();
+        }
+    }
+
+    protected void finish() {
+        try {
+            if (!permits.tryAcquire(inFlight, FINISH_TIME, TimeUnit.MILLISECONDS))
+                System.err.format("%s: gave up waiting for POSTs to complete%n", Main.MYNAME);
+        } catch (InterruptedException e) {
+            /* exiting anyhow */
+        }
+    }
+}
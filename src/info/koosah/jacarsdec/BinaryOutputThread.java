@@ -0,0 +1,194 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write demodulated ACARS in the same binary format that acarsdec (not
+ * Jacarsdec!) writes in -o 6 mode, i.e. what AcarsdecToKoosah reads:
+ * a 16-byte header (seconds, microseconds, channel, length) in native
+ * byte order, followed by the raw message bytes. The destination may be
+ * a file (or named pipe), standard output, or a TCP connection. If
+ * writing fails, the destination gets reopened (or reconnected) now and
+ * then; meanwhile, messages are lost, and counted.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class BinaryOutputThread extends Thread {
+    private MessageChannel<DemodMessage> in;
+    private String dest;
+    private WritableByteChannel out;
+    private ByteBuffer buf;
+    private long nextConnect;
+    private AtomicLong lost;
+    private long lostBefore;
+
+    /* most messages we take from our input in one go */
+    private static final int BATCH_SIZE = 64;
+
+    /* how long to wait before trying to reopen a destination (ms) */
+    private static final long RECONNECT = 5000;
+
+    private static final String TCP = "tcp:";
+
+    /**
+     * Construct a new binary writer.
+     * @param in        Channel to read messages from.
+     * @param dest      Where to write: a file name, "-" for standard
+     *                  output, or tcp:host:port.
+     */
+    public BinaryOutputThread(MessageChannel<DemodMessage> in, String dest) throws IOException {
+        this.in = in;
+        this.dest = dest;
+        buf = ByteBuffer.allocate(BATCH_SIZE * (AcarsdecToKoosah.HEADER_LEN + 256));
+        buf.order(ByteOrder.nativeOrder());
+        nextConnect = 0;
+        lost = new AtomicLong(0);
+        lostBefore = 0;
+        out = open();
+    }
+
+    private WritableByteChannel open() throws IOException {
+        if (dest.equals("-"))
+            return new FileOutputStream(FileDescriptor.out).getChannel();
+        else if (dest.startsWith(TCP))
+            return connect();
+        else
+            return FileChannel.open(Paths.get(dest), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Get the number of messages lost because the destination couldn't
+     * be written to.
+     * @return          Number lost.
+     */
+    public long getLost() {
+        return lost.get();
+    }
+
+    private SocketChannel connect() throws IOException {
+        String hostPort = dest.substring(TCP.length());
+        int colon = hostPort.lastIndexOf(':');
+        if (colon < 1)
+            throw new IllegalArgumentException("bad TCP destination - " + dest);
+        int port;
+        try {
+            port = Integer.parseInt(hostPort.substring(colon + 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad TCP destination - " + dest);
+        }
+        return SocketChannel.open(new InetSocketAddress(hostPort.substring(0, colon), port));
+    }
+
+    public void run() {
+        List<DemodMessage> batch = new ArrayList<DemodMessage>(BATCH_SIZE);
+        boolean done = false;
+        while (!done) {
+            batch.clear();
+            try {
+                in.drainTo(batch, BATCH_SIZE);
+            } catch (InterruptedException e) {
+                break;
+            }
+            /* the whole batch goes out in a single write */
+            buf.clear();
+            int count = 0;
+            for (DemodMessage m: batch) {
+                if (m == null) {
+                    done = true;
+                    break;
+                }
+                encode(m);
+                count++;
+            }
+            buf.flip();
+            if (!write())
+                lost.addAndGet(count);
+        }
+        if (out == null)
+            System.err.format("%s: binary output never reopened, %d messages lost%n", Main.MYNAME,
+                    lost.get() - lostBefore);
+        else if (!dest.equals("-")) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                /* exiting anyhow */
+            }
+        }
+    }
+
+    private void encode(DemodMessage m) {
+        byte[] raw = m.getRaw();
+        if (buf.remaining() < AcarsdecToKoosah.HEADER_LEN + raw.length) {
+            ByteBuffer nbuf = ByteBuffer.allocate(2 * buf.capacity() + raw.length);
+            nbuf.order(ByteOrder.nativeOrder());
+            buf.flip();
+            nbuf.put(buf);
+            buf = nbuf;
+        }
+        long time = m.getTime().getTime();
+        buf.putLong(time / 1000);
+        buf.putInt((int) (time % 1000) * 1000);
+        buf.putShort((short) m.getChannel());
+        buf.putShort((short) raw.length);
+        buf.put(raw);
+    }
+
+    /* returns false if the batch got lost */
+    private boolean write() {
+        if (!buf.hasRemaining())
+            return true;
+        /* a broken destination gets reopened now and then; meanwhile, data is lost */
+        if (out == null) {
+            if (System.currentTimeMillis() < nextConnect)
+                return false;
+            try {
+                out = open();
+            } catch (IOException|IllegalArgumentException e) {
+                nextConnect = System.currentTimeMillis() + RECONNECT;
+                return false;
+            }
+            System.err.format("%s: binary output reopened, %d messages lost%n", Main.MYNAME,
+                    lost.get() - lostBefore);
+        }
+        try {
+            while (buf.hasRemaining())
+                out.write(buf);
+            return true;
+        } catch (IOException e) {
+            System.err.format("%s: unable to write binary output - %s%n", Main.MYNAME, Main.getMessage(e));
+            /* closing standard output's channel would close it for good */
+            if (!dest.equals("-")) {
+                try {
+                    out.close();
+                } catch (IOException e2) {
+                    /* it's broken anyhow */
+                }
+            }
+            out = null;
+            lostBefore = lost.get();
+            nextConnect = System.currentTimeMillis() + RECONNECT;
+            return false;
+        }
+    }
+}
@@ -6,49 +6,184 @@
 
 package info.koosah.jacarsdec;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * This is a buffered communications "channel" somewhat reminiscent of the
  * channels in CAR Hoare's communicating sequential processes. Unlike those,
- * this one never blocks on write. If the buffer is full, the oldest item
- * therein is simply overwritten.
+ * this one by default never blocks on write. If the buffer is full, the
+ * oldest item therein is simply overwritten. Other policies for dealing
+ * with a full buffer may be selected; see Policy.
  *
  * @author David Barts <david.w.barts@gmail.com>
  *
  */
-public class Channel<T> {
+public class Channel<T> implements MessageChannel<T> {
+    /**
+     * What to do when writing to a full channel.
+     */
+    public enum Policy {
+        /** Overwrite the oldest item. */
+        DROP_OLDEST,
+        /** Discard the item being written. */
+        DROP_NEWEST,
+        /** Wait for room, discarding the item being written on timeout. */
+        BLOCK,
+        /** Put the item in a file on disk, to be read later. */
+        SPILL
+    };
+
     private Object[] buffer;
     private int start, length;
     private Semaphore sem;
+    private Policy policy;
+    private long timeout;
+    private SpillFile<T> spill;
+    private Consumer<? super T> dropHandler;
+
+    /* statistics, readable without locking */
+    private AtomicLong written, lost;
+    private AtomicInteger highWater;
 
     /**
-     * Construct a new channel.
+     * Construct a new channel that overwrites the oldest item when full.
      * @param capacity  Buffer size.
      */
     public Channel(int capacity) {
+        this(capacity, Policy.DROP_OLDEST, 0L, null);
+    }
+
+    /**
+     * Construct a new channel.
+     * @param capacity  Buffer size.
+     * @param policy    What to do when full.
+     * @param timeout   For BLOCK, how long to wait for room (ms).
+     * @param spill     For SPILL, the file to spill to.
+     */
+    public Channel(int capacity, Policy policy, long timeout, SpillFile<T> spill) {
+        if (policy == Policy.SPILL && spill == null)
+            throw new IllegalArgumentException("SPILL policy requires a spill file");
         buffer = new Object[capacity];
         start = length = 0;
         sem = new Semaphore(0);
+        this.policy = policy;
+        this.timeout = timeout;
+        this.spill = spill;
+        dropHandler = null;
+        written = new AtomicLong(0);
+        lost = new AtomicLong(0);
+        highWater = new AtomicInteger(0);
     }
 
     /**
-     * Write a single item to this channel.
+     * Write a single item to this channel. A null is never lost, whatever
+     * the policy; if need be, this waits as long as it takes for room.
      * @param item      Item to write.
-     * @return          Whether or not overwriting happened.
+     * @return          Whether or not an item got lost.
      */
     public synchronized boolean write(T item) {
-        int ndx = (start + length) % buffer.length;
-        buffer[ndx] = item;
-        if (length >= buffer.length) {
-            /* data lost due to overwrite */
-            start = (start + 1) % buffer.length;
-            return true;
-        } else {
-            length++;
-            sem.release();
-            return false;
+        written.incrementAndGet();
+        /* drop-oldest always has room for the end marker */
+        if (item == null && policy != Policy.DROP_OLDEST)
+            awaitEndRoom();
+        int spilled = spill == null ? 0 : spill.size();
+        if (length >= buffer.length || spilled > 0) {
+            switch (policy) {
+            case DROP_OLDEST:
+                /* data lost due to overwrite */
+                dropped(buffer[start]);
+                buffer[(start + length) % buffer.length] = item;
+                start = (start + 1) % buffer.length;
+                lost.incrementAndGet();
+                return true;
+
+            case DROP_NEWEST:
+                lost.incrementAndGet();
+                dropped(item);
+                return true;
+
+            case BLOCK:
+                if (!awaitRoom()) {
+                    lost.incrementAndGet();
+                    dropped(item);
+                    return true;
+                }
+                break;
+
+            case SPILL:
+                /* once anything's spilled, keep spilling to keep order */
+                try {
+                    if (spill.write(item)) {
+                        updateHighWater(length + spilled + 1);
+                        sem.release();
+                        return false;
+                    }
+                } catch (IOException e) {
+                    /* treat it as a full disk */
+                }
+                lost.incrementAndGet();
+                dropped(item);
+                return true;
+            }
+        }
+        buffer[(start + length) % buffer.length] = item;
+        length++;
+        updateHighWater(length + spilled);
+        sem.release();
+        return false;
+    }
+
+    /* called with our lock held; returns false on timeout */
+    private boolean awaitRoom() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (length >= buffer.length) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0)
+                return false;
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* called with our lock held */
+    @SuppressWarnings("unchecked")
+    private void dropped(Object item) {
+        if (item != null && dropHandler != null)
+            dropHandler.accept((T) item);
+    }
+
+    /*
+     * Called with our lock held. Waits, with no time limit, for room in
+     * memory and for the spill file (if any) to empty, so the end marker
+     * lands after everything else.
+     */
+    private void awaitEndRoom() {
+        boolean interrupted = false;
+        while (length >= buffer.length || (spill != null && spill.size() > 0)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
         }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void updateHighWater(int occupancy) {
+        if (occupancy > highWater.get())
+            highWater.set(occupancy);
     }
 
     /**
@@ -58,13 +193,79 @@ public class Channel<T> {
     public T read() throws InterruptedException {
         sem.acquire();
         synchronized (this) {
-            if (length < 1)
-                throw new RuntimeException("invalid length: " + length);
-            T ret = (T) buffer[start];
-            buffer[start] = null;  /* unref the item */
-            start = (start + 1) % buffer.length;
-            length--;
-            return ret;
+            return take();
+        }
+    }
+
+    public int drainTo(Collection<? super T> dest, int max) throws InterruptedException {
+        sem.acquire();
+        return drainAcquired(dest, max);
+    }
+
+    public int drainTo(Collection<? super T> dest, int max, long timeout) throws InterruptedException {
+        if (!sem.tryAcquire(timeout, TimeUnit.MILLISECONDS))
+            return 0;
+        return drainAcquired(dest, max);
+    }
+
+    /* called after acquiring a permit for the first item */
+    private synchronized int drainAcquired(Collection<? super T> dest, int max) {
+        /* grab the permits for everything else we're taking, too */
+        int extra = Math.min(max, length + (spill == null ? 0 : spill.size())) - 1;
+        if (extra > 0 && !sem.tryAcquire(extra))
+            extra = 0;  /* another reader has claimed them */
+        for (int i=0; i<=extra; i++)
+            dest.add(take());
+        return extra + 1;
+    }
+
+    /* called with our lock held after acquiring a permit */
+    @SuppressWarnings("unchecked")
+    private T take() {
+        if (length < 1) {
+            if (spill != null && spill.size() > 0) {
+                T ret;
+                try {
+                    ret = spill.read();
+                } catch (IOException e) {
+                    throw new RuntimeException("unable to read spill file", e);
+                }
+                notifyAll();  /* a writer may be waiting to end */
+                return ret;
+            }
+            throw new RuntimeException("invalid length: " + length);
         }
+        T ret = (T) buffer[start];
+        buffer[start] = null;  /* unref the item */
+        start = (start + 1) % buffer.length;
+        length--;
+        if (policy != Policy.DROP_OLDEST)
+            notifyAll();
+        return ret;
+    }
+
+    /**
+     * Get the capacity of the in-memory buffer.
+     * @return          Capacity.
+     */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    public synchronized void setDropHandler(Consumer<? super T> handler) {
+        dropHandler = handler;
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    public long getLost() {
+        return lost.get();
+    }
+
+    /* this counts any items spilled to disk */
+    public int getHighWater() {
+        return highWater.get();
     }
 }
@@ -0,0 +1,44 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for an item lost because a buffer between
+ * threads was full.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+@Name("jacarsdec.ChannelOverflow")
+@Label("Channel Overflow")
+@Category("Jacarsdec")
+@Description("An item lost because a buffer was full.")
+@StackTrace(false)
+class ChannelOverflowEvent extends Event {
+    @Label("Buffer")
+    @Description("Which buffer, named as in the metrics.")
+    String buffer;
+
+    /**
+     * Record an overflow, if anyone's recording.
+     * @param buffer    Which buffer overflowed.
+     */
+    static void emit(String buffer) {
+        ChannelOverflowEvent event = new ChannelOverflowEvent();
+        if (event.isEnabled()) {
+            event.buffer = buffer;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+/**
+ * Keeps us from hammering a server that is down. After enough failures
+ * in a row, the breaker "opens" and refuses all requests for a while.
+ * Once that time is up, it lets a single trial request through; if that
+ * succeeds, the breaker closes again, else it stays open for another
+ * while.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class CircuitBreaker {
+    /**
+     * The state of the breaker.
+     */
+    public enum State {
+        /** Requests allowed. */
+        CLOSED,
+        /** Requests refused. */
+        OPEN,
+        /** A trial request is in progress. */
+        HALF_OPEN
+    };
+
+    private int threshold;
+    private long openTime;
+    private State state;
+    private int failures;
+    private long openedAt;
+
+    /**
+     * Construct a new breaker, initially closed.
+     * @param threshold Number of failures in a row that opens it.
+     * @param openTime  How long it stays open (ms).
+     */
+    public CircuitBreaker(int threshold, long openTime) {
+        this.threshold = threshold;
+        this.openTime = openTime;
+        state = State.CLOSED;
+        failures = 0;
+        openedAt = 0;
+    }
+
+    /**
+     * Ask whether a request may be made now.
+     * @return          Whether allowed.
+     */
+    public synchronized boolean allow() {
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (System.currentTimeMillis() - openedAt < openTime)
+                return false;
+            state = State.HALF_OPEN;
+            return true;
+        default:
+            /* only one trial at a time */
+            return false;
+        }
+    }
+
+    /**
+     * Report that a request succeeded.
+     */
+    public synchronized void success() {
+        if (state != State.CLOSED)
+            System.err.format("%s: server back up, resuming%n", Main.MYNAME);
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * Report that a request failed.
+     */
+    public synchronized void failure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= threshold)) {
+            if (state == State.CLOSED)
+                System.err.format("%s: server appears down, pausing %d ms%n", Main.MYNAME, openTime);
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Get how long it will be until allow() lets a request through. While
+     * a trial request is in progress, that can't be known, so it's zero.
+     * @return          Time to wait (ms), zero if none or unknown.
+     */
+    public synchronized long getWait() {
+        if (state != State.OPEN)
+            return 0;
+        return Math.max(0, openedAt + openTime - System.currentTimeMillis());
+    }
+
+    /**
+     * Get the current state.
+     * @return          State.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+}
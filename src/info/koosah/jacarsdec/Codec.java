@@ -0,0 +1,34 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Something that can serialize and deserialize objects of a given type,
+ * so that they may be stored on disk.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public interface Codec<T> {
+    /**
+     * Serialize an item.
+     * @param item      Item to serialize (never null).
+     * @param out       Where to write it.
+     */
+    public void encode(T item, DataOutput out) throws IOException;
+
+    /**
+     * Deserialize an item.
+     * @param in        Where to read it from.
+     * @return          The item.
+     */
+    public T decode(DataInput in) throws IOException;
+}
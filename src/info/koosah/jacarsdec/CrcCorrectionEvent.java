@@ -0,0 +1,46 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for checking (and, if need be, trying to
+ * correct) one message's CRC. Its duration is how long that took.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+@Name("jacarsdec.CrcCorrection")
+@Label("CRC Correction")
+@Category("Jacarsdec")
+@Description("Checking a message's CRC, correcting errors if possible.")
+@StackTrace(false)
+class CrcCorrectionEvent extends Event {
+    @Label("Channel")
+    int channel;
+
+    @Label("Length")
+    @Description("Message length, in bytes.")
+    int length;
+
+    @Label("Parity Errors")
+    @Description("Bytes that failed their parity check.")
+    int parityErrors;
+
+    @Label("Attempts")
+    @Description("Candidate corrections tried.")
+    int attempts;
+
+    @Label("Passed")
+    boolean passed;
+}
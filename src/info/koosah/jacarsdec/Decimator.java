@@ -0,0 +1,115 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+/**
+ * Low-pass filter and decimate a single channel of digitized audio. ACARS
+ * occupies only the 1200 to 2400 Hz part of the audio spectrum, so there
+ * is no point in running the demodulator at sound card sample rates; this
+ * gets rid of the excess, carrying filter state over from one buffer to
+ * the next.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class Decimator {
+    /* number of filter taps per unit of decimation factor */
+    private static final int TAPS_PER = 12;
+
+    /* filter cutoff, as a fraction of the output sample rate */
+    private static final double CUTOFF = 0.36;
+
+    private int factor;
+    private float[] h;
+    private float[] work;
+    private float[] output;
+    private int length;
+    private int phase;
+
+    /**
+     * Construct a new decimator.
+     * @param factor    Decimation factor (1 means do nothing).
+     */
+    public Decimator(int factor) {
+        if (factor < 1)
+            throw new IllegalArgumentException("invalid decimation factor: " + factor);
+        this.factor = factor;
+
+        /* windowed-sinc low-pass filter, Hamming window, unity DC gain */
+        int taps = TAPS_PER * factor + 1;
+        h = new float[taps];
+        double fc = CUTOFF / factor;
+        double sum = 0.0;
+        for (int i=0; i<taps; i++) {
+            int m = i - taps / 2;
+            double v = m == 0 ? 2.0 * fc : Math.sin(2.0 * Math.PI * fc * m) / (Math.PI * m);
+            v *= 0.54 - 0.46 * Math.cos(2.0 * Math.PI * i / (taps - 1));
+            h[i] = (float) v;
+            sum += v;
+        }
+        for (int i=0; i<taps; i++)
+            h[i] /= sum;
+
+        work = new float[taps - 1];
+        output = new float[0];
+        length = phase = 0;
+    }
+
+    /**
+     * Get the decimation factor.
+     * @return          Decimation factor.
+     */
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * Filter and decimate a buffer of audio. The buffer returned belongs to
+     * this object, and is overwritten by the next call.
+     * @param in        Input samples.
+     * @return          Output buffer; see length() for how much is valid.
+     */
+    public float[] process(float[] in) {
+        int hist = h.length - 1;
+        int total = hist + in.length;
+
+        /* previous history followed by the new samples */
+        if (work.length < total) {
+            float[] nwork = new float[total];
+            System.arraycopy(work, 0, nwork, 0, hist);
+            work = nwork;
+        }
+        System.arraycopy(in, 0, work, hist, in.length);
+
+        /* compute only the outputs we're going to keep */
+        int maxOut = (in.length + factor - 1) / factor;
+        if (output.length < maxOut)
+            output = new float[maxOut];
+        int n = 0;
+        int i;
+        for (i=phase; i<in.length; i+=factor) {
+            float acc = 0.0f;
+            for (int j=0; j<h.length; j++)
+                acc += h[j] * work[i + j];
+            output[n++] = acc;
+        }
+        phase = i - in.length;
+        length = n;
+
+        /* save history for next time */
+        System.arraycopy(work, in.length, work, 0, hist);
+        return output;
+    }
+
+    /**
+     * Get the number of valid samples produced by the last process call.
+     * @return          Number of samples.
+     */
+    public int length() {
+        return length;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Suppress duplicate messages, as happen when two receivers hear the same
+ * transmission, or when an aircraft retransmits a message that didn't get
+ * acknowledged. Each new message is held for a short while, in case a
+ * better copy (one with fewer corrected errors) shows up, then passed on;
+ * any further copies seen within the (longer) duplicate window are
+ * dropped. Memory use is bounded by limiting how many distinct messages
+ * are remembered. Not thread-safe.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class Deduplicator {
+    private long hold, window;
+    private int maxEntries;
+    private LinkedHashMap<ByteBuffer, Entry> seen;
+    private ArrayDeque<Entry> pending;
+    private volatile long duplicates;
+
+    /**
+     * Construct a new deduplicator.
+     * @param hold      How long to hold each new message (ms).
+     * @param window    How long to remember messages (ms); at least hold.
+     * @param maxEntries  Maximum number of messages remembered.
+     */
+    public Deduplicator(long hold, long window, int maxEntries) {
+        this.hold = hold;
+        this.window = Math.max(hold, window);
+        this.maxEntries = maxEntries;
+        seen = new LinkedHashMap<ByteBuffer, Entry>();
+        pending = new ArrayDeque<Entry>();
+        duplicates = 0;
+    }
+
+    /**
+     * Offer a newly received message.
+     * @param m         Message.
+     * @param now       Current time (ms).
+     * @param ready     Messages ready to be passed on get added here.
+     */
+    public void offer(DemodMessage m, long now, Collection<? super DemodMessage> ready) {
+        /* a ByteBuffer's equals and hashCode are by content */
+        ByteBuffer key = ByteBuffer.wrap(m.getRaw());
+        Entry e = seen.get(key);
+        if (e != null) {
+            duplicates++;
+            if (!e.released && m.getErrors() < e.best.getErrors())
+                e.best = m;
+            return;
+        }
+        e = new Entry(m, now);
+        seen.put(key, e);
+        pending.add(e);
+        if (seen.size() > maxEntries) {
+            /* forget the oldest, passing it on first if need be */
+            Iterator<Entry> it = seen.values().iterator();
+            Entry eldest = it.next();
+            it.remove();
+            if (!eldest.released) {
+                pending.remove(eldest);
+                release(eldest, ready);
+            }
+        }
+    }
+
+    /**
+     * Pass on held messages that are due, and forget old ones.
+     * @param now       Current time (ms).
+     * @param ready     Messages ready to be passed on get added here.
+     */
+    public void poll(long now, Collection<? super DemodMessage> ready) {
+        while (!pending.isEmpty() && pending.peek().first + hold <= now)
+            release(pending.poll(), ready);
+        Iterator<Map.Entry<ByteBuffer, Entry>> it = seen.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next().getValue();
+            if (e.first + window > now)
+                break;
+            it.remove();
+        }
+    }
+
+    /**
+     * Pass on all held messages, regardless of whether they are due.
+     * @param ready     Messages ready to be passed on get added here.
+     */
+    public void flush(Collection<? super DemodMessage> ready) {
+        while (!pending.isEmpty())
+            release(pending.poll(), ready);
+    }
+
+    /**
+     * Get when the next held message will be due.
+     * @return          Time (ms), or Long.MAX_VALUE if none are held.
+     */
+    public long nextDue() {
+        return pending.isEmpty() ? Long.MAX_VALUE : pending.peek().first + hold;
+    }
+
+    /**
+     * Get the number of duplicates suppressed so far.
+     * @return          Duplicate count.
+     */
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    private void release(Entry e, Collection<? super DemodMessage> ready) {
+        e.released = true;
+        ready.add(e.best);
+        e.best = null;  /* only the key is needed from now on */
+    }
+
+    private static class Entry {
+        public DemodMessage best;
+        public long first;
+        public boolean released;
+
+        public Entry(DemodMessage best, long first) {
+            this.best = best;
+            this.first = first;
+            released = false;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for demodulating one buffer of raw audio. Its
+ * duration is how long the demodulator spent on that buffer.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+@Name("jacarsdec.DemodBuffer")
+@Label("Demodulate Buffer")
+@Category("Jacarsdec")
+@Description("Demodulating one buffer of raw audio.")
+@StackTrace(false)
+class DemodBufferEvent extends Event {
+    @Label("Channel")
+    int channel;
+
+    @Label("Samples")
+    @Description("Samples demodulated, after any decimation.")
+    int samples;
+}
@@ -6,6 +6,9 @@
 
 package info.koosah.jacarsdec;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.Date;
@@ -331,6 +334,29 @@ public class DemodMessage {
         return new String(raw, CHARSET);
     }
 
+    /**
+     * For storing messages on disk. Only the fields passed to the
+     * constructor get stored; the rest are recreated by parsing.
+     */
+    public static final Codec<DemodMessage> CODEC = new Codec<DemodMessage>() {
+        public void encode(DemodMessage item, DataOutput out) throws IOException {
+            out.writeLong(item.time.getTime());
+            out.writeInt(item.channel);
+            out.writeInt(item.errors);
+            out.writeInt(item.raw.length);
+            out.write(item.raw);
+        }
+
+        public DemodMessage decode(DataInput in) throws IOException {
+            Date time = new Date(in.readLong());
+            int channel = in.readInt();
+            int errors = in.readInt();
+            byte[] raw = new byte[in.readInt()];
+            in.readFully(raw);
+            return new DemodMessage(time, channel, errors, raw);
+        }
+    };
+
     /**
      * Constructor
      * @param time          Time message was received.
@@ -6,6 +6,10 @@
 
 package info.koosah.jacarsdec;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
 /**
  * Given some digitized audio from a single audio channel of input,
  * demodulate it into an ACARS message.
@@ -14,12 +18,20 @@ package info.koosah.jacarsdec;
  *
  */
 public class DemodThread extends Thread {
-    private Channel<RawMessage> in;
-    private Channel<DemodMessage> out;
+    private MessageChannel<RawMessage> in;
+    private MessageChannel<DemodMessage> out;
     private double rate;
+    private Oscillator nco;
+    private Decimator decimator;
 
     private RawMessage rawMessage;
 
+    /* statistics; only we write these, so they need no lock */
+    private volatile long syncs, crcPassed, crcFailed, corrected;
+
+    /* most raw messages we take from our input in one go */
+    static final int BATCH_SIZE = 16;
+
     /*
      * All MSK parameters are derivable from a baud rate and a center
      * frequency. Note that these must be chosen so that the resulting
@@ -39,15 +51,20 @@ public class DemodThread extends Thread {
      * I honestly have no idea what's going on with PLLC1 and PLLC2.
      * Tried scaling them by ratio of sampling rates, but that failed
      * horribly. Decreasing them by a factor of 1000 from LeConte's
-     * code that samples at 12.5 kHz seems to work.
+     * code that samples at 12.5 kHz seems to work. These are the values
+     * that work at PLL_RATE; mskDf is in radians per sample, so the same
+     * correction in Hz needs a proportionally bigger value at lower
+     * sample rates, and initMsk scales them accordingly.
      */
     private static final double PLLC1 = 4.0e-11;
     private static final double PLLC2 = 3.5e-6;
+    private static final double PLL_RATE = 44100.0;
     private static final int MAXPERR = 2;
     private static final double MSK_RPC = 3.0 * Math.PI / 2.0;
 
     private int frameLength;
     private double mskFreq, mskPhi, mskClk, mskDf, mskA;
+    private double pllc1, pllc2;
     private int mskS, idx;
     private double[] h, I, Q;
 
@@ -60,10 +77,55 @@ public class DemodThread extends Thread {
     private enum AcarsState { WSYN, SYN2, SOH1, TXT, CRC1, CRC2, END };
     AcarsState state;
 
-    public DemodThread(Channel<RawMessage> in, Channel<DemodMessage> out, float rate) {
+    /**
+     * Construct a new demodulator.
+     * @param in        Channel to read raw audio from.
+     * @param out       Channel to write demodulated messages to.
+     * @param rate      Sample rate of the raw audio, in Hz.
+     * @param decimate  Decimation factor to apply before demodulating.
+     * @param ncoMode   Type of local oscillator to use.
+     */
+    public DemodThread(MessageChannel<RawMessage> in, MessageChannel<DemodMessage> out, float rate, int decimate, Oscillator.Mode ncoMode) {
         this.in = in;
         this.out = out;
-        this.rate = (double) rate;
+        this.rate = (double) rate / decimate;
+        this.nco = new Oscillator(ncoMode);
+        this.decimator = decimate > 1 ? new Decimator(decimate) : null;
+        syncs = crcPassed = crcFailed = corrected = 0;
+    }
+
+    /**
+     * Get the number of times a SYN SYN preamble was seen.
+     * @return          Count.
+     */
+    public long getSyncs() {
+        return syncs;
+    }
+
+    /**
+     * Get the number of messages that passed their CRC check (perhaps
+     * after error correction).
+     * @return          Count.
+     */
+    public long getCrcPassed() {
+        return crcPassed;
+    }
+
+    /**
+     * Get the number of messages that failed their CRC check, even after
+     * attempting error correction.
+     * @return          Count.
+     */
+    public long getCrcFailed() {
+        return crcFailed;
+    }
+
+    /**
+     * Get the number of bits fixed by error correction.
+     * @return          Count.
+     */
+    public long getCorrected() {
+        return corrected;
     }
 
     private static final byte SYN = 0x16;
@@ -88,19 +150,43 @@ public class DemodThread extends Thread {
         initAcars();
         rawMessage = null;
         boolean verbose = Main.cmdLine.hasOption("verbose");
+        List<RawMessage> batch = new ArrayList<RawMessage>(BATCH_SIZE);
         while (true) {
-            /* read, exit if interrupted or we get a null message */
+            /* read all we can, exit if interrupted */
+            batch.clear();
             try {
-                rawMessage = in.read();
+                in.drainTo(batch, BATCH_SIZE);
             } catch (InterruptedException e) {
                 break;
             }
-            if (rawMessage == null)
-                break;
-            /* demodulate */
-            if (verbose)
-                displayRaw();
-            demodMsk();
+            for (RawMessage m: batch) {
+                /* a null message means exit */
+                if (m == null)
+                    return;
+                rawMessage = m;
+                /* demodulate */
+                if (verbose)
+                    displayRaw();
+                DemodBufferEvent event = new DemodBufferEvent();
+                event.begin();
+                int samples;
+                if (decimator == null) {
+                    float[] buf = rawMessage.getMessage();
+                    demodMsk(buf, buf.length);
+                    samples = buf.length;
+                } else {
+                    float[] buf = decimator.process(rawMessage.getMessage());
+                    demodMsk(buf, decimator.length());
+                    samples = decimator.length();
+                }
+                if (event.shouldCommit()) {
+                    event.channel = rawMessage.getChannel();
+                    event.samples = samples;
+                    event.commit();
+                }
+                /* done with it, let the reader have it back */
+                rawMessage.release();
+            }
         }
     }
 
@@ -129,11 +215,10 @@ public class DemodThread extends Thread {
                 buf.length, min, max, total/buf.length);
     }
 
-    private void demodMsk() {
-        float[] buf = rawMessage.getMessage();
+    private void demodMsk(float[] buf, int length) {
         int n;
 
-        for (n=0; n<buf.length; n++) {
+        for (n=0; n<length; n++) {
             double s, in;
 
             /* oscillator */
@@ -141,11 +226,12 @@ public class DemodThread extends Thread {
             mskPhi += s;
             if (mskPhi >= 2.0 * Math.PI)
                 mskPhi -= 2.0 * Math.PI;
+            nco.advance(mskPhi, s);
 
             /* mixer */
             in = buf[n];
-            I[idx] = in * Math.cos(-mskPhi);
-            Q[idx] = in * Math.sin(-mskPhi);
+            I[idx] = in * nco.cos();
+            Q[idx] = in * nco.sin();
             idx = (idx + 1) % frameLength;
 
             /* bit clock */
@@ -182,8 +268,8 @@ public class DemodThread extends Thread {
                 mskS = (mskS + 1) & 3;
 
                 /* PLL */
-                mskDf = PLLC2 * dphi + mskA;
-                mskA = PLLC1 * dphi;
+                mskDf = pllc2 * dphi + mskA;
+                mskA = pllc1 * dphi;
             }
         }
     }
@@ -193,10 +279,12 @@ public class DemodThread extends Thread {
         mskPhi = mskClk = 0.0;
         mskS = idx = 0;
         mskDf = mskA = 0.0;
+        pllc1 = PLLC1 * PLL_RATE / rate;
+        pllc2 = PLLC2 * PLL_RATE / rate;
 
         /* our frame needs to hold 2 bits worth of samples */
         frameLength = 2 * (int) rate;
-        frameLength = frameLength / BAUD + frameLength % BAUD > 0 ? 1 : 0;
+        frameLength = frameLength / BAUD + (frameLength % BAUD > 0 ? 1 : 0);
         I = new double[frameLength];
         Q = new double[frameLength];
         h = new double[frameLength];
@@ -245,6 +333,7 @@ public class DemodThread extends Thread {
 
         case SYN2:
             if (outbits == SYN) {
+                syncs++;
                 state = AcarsState.SOH1;
                 nbits = 8;
                 return;
@@ -354,6 +443,8 @@ public class DemodThread extends Thread {
             return;
         }
         blkErr = pn;
+        CrcCorrectionEvent event = new CrcCorrectionEvent();
+        event.begin();
         AcarsCrc c = new AcarsCrc();
         for (byte b : buf) {
             c.update(b);
@@ -362,9 +453,21 @@ public class DemodThread extends Thread {
         c.update(crc[1]);
 
         /* try to fix error(s) */
-        if (!c.fixErrors(buf, pr, 0, pn)) {
+        boolean passed = c.fixErrors(buf, pr, 0, pn);
+        if (event.shouldCommit()) {
+            event.channel = rawMessage.getChannel();
+            event.length = buf.length;
+            event.parityErrors = pn;
+            event.attempts = c.getAttempts();
+            event.passed = passed;
+            event.commit();
+        }
+        if (!passed) {
+            crcFailed++;
             return;
         }
+        crcPassed++;
+        corrected += pn;
 
         /* redo parity checking and remove parity bits */
         for (int i=0; i<buf.length; i++) {
@@ -378,11 +481,13 @@ public class DemodThread extends Thread {
 
         /* send message to output thread */
         DemodMessage demodMessage = new DemodMessage(
-                rawMessage.getTime(),
+                new Date(rawMessage.getTime()),
                 rawMessage.getChannel(),
                 blkErr, buf);
-        if (out.write(demodMessage))
+        if (out.write(demodMessage)) {
             System.err.format("%s: demod data lost on channel %d%n",
                     Main.MYNAME, rawMessage.getChannel());
+            ChannelOverflowEvent.emit("output");
+        }
     }
 }
@@ -0,0 +1,149 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copy each demodulated message to several outputs ("sinks"). Each sink
+ * has its own buffer, so a slow sink only loses its own messages, and
+ * does not hold up the other sinks or the demodulators. Optionally,
+ * duplicate messages get suppressed, and multi-block messages joined back
+ * together, here, too.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class DispatcherThread extends Thread {
+    private MessageChannel<DemodMessage> in;
+    private List<String> names;
+    private List<MessageChannel<DemodMessage>> outs;
+    private List<Boolean> losing;
+    private Deduplicator dedup;
+    private Reassembler reassembler;
+
+    /* most messages we take from our input in one go */
+    private static final int BATCH_SIZE = 64;
+
+    public DispatcherThread(MessageChannel<DemodMessage> in) {
+        this.in = in;
+        names = new ArrayList<String>();
+        outs = new ArrayList<MessageChannel<DemodMessage>>();
+        losing = new ArrayList<Boolean>();
+        dedup = null;
+        reassembler = null;
+    }
+
+    /**
+     * Add a sink. Must be called before this thread is started.
+     * @param name      Name of sink, for error messages.
+     * @param out       Channel the sink reads from.
+     */
+    public void addSink(String name, MessageChannel<DemodMessage> out) {
+        names.add(name);
+        outs.add(out);
+        losing.add(false);
+    }
+
+    /**
+     * Suppress duplicate messages before passing them on. Must be called
+     * before this thread is started.
+     * @param dedup     Deduplicator to use.
+     */
+    public void setDeduplicator(Deduplicator dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * Join multi-block messages before passing them on. Must be called
+     * before this thread is started.
+     * @param reassembler  Reassembler to use.
+     */
+    public void setReassembler(Reassembler reassembler) {
+        this.reassembler = reassembler;
+    }
+
+    public void run() {
+        List<DemodMessage> batch = new ArrayList<DemodMessage>(BATCH_SIZE);
+        List<DemodMessage> unique = new ArrayList<DemodMessage>(BATCH_SIZE);
+        List<DemodMessage> joined = new ArrayList<DemodMessage>(BATCH_SIZE);
+        while (true) {
+            batch.clear();
+            unique.clear();
+            joined.clear();
+            try {
+                /* if holding messages, don't wait past when they're due */
+                long due = Long.MAX_VALUE;
+                if (dedup != null)
+                    due = dedup.nextDue();
+                if (reassembler != null)
+                    due = Math.min(due, reassembler.nextDue());
+                if (due == Long.MAX_VALUE)
+                    in.drainTo(batch, BATCH_SIZE);
+                else
+                    in.drainTo(batch, BATCH_SIZE, Math.max(1L, due - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                break;
+            }
+            long now = System.currentTimeMillis();
+            boolean done = false;
+            for (DemodMessage m: batch) {
+                if (m == null) {
+                    done = true;
+                    break;
+                }
+                if (dedup == null)
+                    unique.add(m);
+                else
+                    dedup.offer(m, now, unique);
+            }
+            if (dedup != null) {
+                if (done)
+                    dedup.flush(unique);
+                else
+                    dedup.poll(now, unique);
+            }
+            /* duplicates get removed first, so repeated blocks never get joined */
+            List<DemodMessage> ready = unique;
+            if (reassembler != null) {
+                for (DemodMessage m: unique)
+                    reassembler.offer(m, now, joined);
+                if (done)
+                    reassembler.flush(joined);
+                else
+                    reassembler.poll(now, joined);
+                ready = joined;
+            }
+            for (DemodMessage m: ready)
+                dispatch(m);
+            if (done) {
+                /* passing a null on tells each sink to exit */
+                dispatch(null);
+                return;
+            }
+        }
+    }
+
+    private void dispatch(DemodMessage m) {
+        /* parse here, once, so the sinks never race each other to parse it */
+        if (m != null)
+            m.parse();
+        for (int i=0; i<outs.size(); i++) {
+            /*
+             * A stuck sink would lose every message, so only report
+             * when it starts losing; --stats gives the totals.
+             */
+            boolean lost = outs.get(i).write(m);
+            if (lost)
+                ChannelOverflowEvent.emit("sink " + names.get(i));
+            if (lost && !losing.get(i))
+                System.err.format("%s: %s output data lost%n", Main.MYNAME, names.get(i));
+            losing.set(i, lost);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads recorded audio from a file, as fast as it's asked for. The file
+ * is memory-mapped, a window at a time, so samples get read straight out
+ * of the page cache. Times come from position in the recording, not from
+ * the clock.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class FileSource extends PcmSource {
+    private PcmFile pcm;
+    private FileChannel chan;
+    private MappedByteBuffer map;
+    private long mapped, frame, startTime, time;
+
+    /* most to map at once (bytes) */
+    private static final long WINDOW = 16L * 1024L * 1024L;
+
+    /**
+     * Open a recording. Absent better information, it's assumed to have
+     * ended when the file was last modified.
+     * @param pcm       File to read from.
+     */
+    public FileSource(PcmFile pcm) throws IOException {
+        super(pcm.getChannels(), pcm.getRate());
+        this.pcm = pcm;
+        chan = FileChannel.open(pcm.getFile().toPath(), StandardOpenOption.READ);
+        map = null;
+        mapped = frame = time = 0;
+        startTime = pcm.getFile().lastModified() - Math.round(pcm.getSeconds() * 1000.0);
+    }
+
+    public String getName() {
+        return "file " + pcm.getFile();
+    }
+
+    public boolean isLive() {
+        return false;
+    }
+
+    public int read(float[][] out, int[] select) throws IOException {
+        int want = out[0].length;
+        int got = 0;
+        while (got < want) {
+            if (map == null || !map.hasRemaining()) {
+                if (mapped >= pcm.getLength())
+                    break;
+                long size = Math.min(WINDOW - WINDOW % frameSize, pcm.getLength() - mapped);
+                map = chan.map(FileChannel.MapMode.READ_ONLY, pcm.getOffset() + mapped, size);
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                mapped += size;
+            }
+            int frames = Math.min(want - got, map.remaining() / frameSize);
+            deinterleave(map, frames, out, select, got);
+            got += frames;
+        }
+        if (got == 0)
+            return -1;
+        time = startTime + Math.round(frame * 1000.0 / rate);
+        frame += got;
+        return got;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void close() throws IOException {
+        map = null;
+        chan.close();
+    }
+}
@@ -7,14 +7,19 @@
 package info.koosah.jacarsdec;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 import java.util.TimeZone;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.security.KeyManagementException;
@@ -33,17 +38,50 @@ import javax.net.ssl.*;
  */
 public class HttpOutputThread extends Thread {
 
-    private Channel<DemodMessage> in;
+    private MessageChannel<DemodMessage> in;
     private URL url;
     private String auth;
     private byte[] fingerprint;
+    private int batchSize;
+    private long batchTime;
+    private Spool spool;
+    private long retryTime;
+    private volatile long nextRetry;
+    private CircuitBreaker breaker;
+    private RetryThread retrier;
+
+    /* statistics; POSTs happen in more than one thread */
+    private LongAdder messages, postNanos;
+    private LongAdder[] responses;
 
     private DemodMessage demodMessage;
     private Timer timer;
     private boolean useStdAuth;
+    private SSLContext sslContext;
     private SSLSocketFactory socketFactory;
     private HostnameVerifier hostnameVerifier;
 
+    /* most messages we take from our input in one go, if not batching */
+    private static final int BATCH_SIZE = 64;
+
+    /* default time to wait for a batch to fill (ms) */
+    private static final long BATCH_TIME = 1000;
+
+    /* spool defaults: segment size, total size (MB), retry interval (ms) */
+    private static final long SPOOL_SEGMENT = 16;
+    private static final long SPOOL_MAX = 1024;
+    private static final long SPOOL_RETRY = 30000;
+    private static final int MEGABYTE = 1024 * 1024;
+
+    /* retry defaults: first and maximum delay (ms), messages awaiting retry */
+    private static final long RETRY_BASE = 1000;
+    private static final long RETRY_MAX = 60000;
+    private static final long RETRY_QUEUE = 1000;
+
+    /* circuit breaker defaults: failures to open it, time open (ms) */
+    private static final long BREAKER_FAILURES = 5;
+    private static final long BREAKER_OPEN = 60000;
+
     /* lengths of the various fingerprint types we support, in bytes */
     private static final int MD5_LEN = 16;
     private static final int SHA1_LEN = 20;
@@ -55,7 +93,7 @@ public class HttpOutputThread extends Thread {
     }
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
-    public HttpOutputThread(Channel<DemodMessage> in, Properties props) throws MalformedURLException {
+    public HttpOutputThread(MessageChannel<DemodMessage> in, Properties props) throws IOException {
         this.in = in;
         // Must specify the URL, because it's pointless if we don't.
         url = new URL(mustGetProperty(props, "url"));
@@ -77,11 +115,102 @@ public class HttpOutputThread extends Thread {
             fingerprint = null;
         } else
             fingerprint = parseFing(rawFing);
+        // Batching is optional; if enabled, messages get gathered and
+        // sent as a JSON array, which saves on connections.
+        batchSize = (int) parseLong(props, "batch.size", 1L);
+        batchTime = parseLong(props, "batch.time", BATCH_TIME);
+        if (batchSize < 1 || batchTime < 0)
+            throw new IllegalArgumentException("batch.size and batch.time must be positive");
+        // Spooling is optional; if enabled, what can't be sent gets kept
+        // on disk and sent later.
+        String spoolDir = props.getProperty("spool");
+        if (spoolDir == null) {
+            spool = null;
+        } else {
+            long segment = parseLong(props, "spool.segment", SPOOL_SEGMENT);
+            long max = parseLong(props, "spool.max", SPOOL_MAX);
+            retryTime = parseLong(props, "spool.retry", SPOOL_RETRY);
+            if (segment < 1 || segment > Integer.MAX_VALUE / MEGABYTE || max < segment || retryTime < 1)
+                throw new IllegalArgumentException("bad spool.segment, spool.max, or spool.retry");
+            spool = new Spool(new File(spoolDir), (int) segment * MEGABYTE, max * MEGABYTE);
+        }
+        nextRetry = 0;
+        // Retrying is optional; if enabled, failed POSTs get retried a
+        // few times, and a server that seems down gets left alone for a
+        // while.
+        int attempts = (int) parseLong(props, "retry.attempts", 0L);
+        if (attempts > 0) {
+            long base = parseLong(props, "retry.base", RETRY_BASE);
+            long max = parseLong(props, "retry.max", RETRY_MAX);
+            long queued = parseLong(props, "retry.queue", RETRY_QUEUE);
+            long failures = parseLong(props, "breaker.failures", BREAKER_FAILURES);
+            long open = parseLong(props, "breaker.open", BREAKER_OPEN);
+            if (base < 1 || max < base || queued < 1 || queued > Integer.MAX_VALUE || failures < 1 || open < 1)
+                throw new IllegalArgumentException("bad retry.* or breaker.* property");
+            breaker = new CircuitBreaker((int) failures, open);
+            retrier = new RetryThread(this, breaker, attempts, base, max, (int) queued);
+        } else {
+            breaker = null;
+            retrier = null;
+        }
+        messages = new LongAdder();
+        postNanos = new LongAdder();
+        responses = new LongAdder[6];
+        for (int i=0; i<responses.length; i++)
+            responses[i] = new LongAdder();
         timer = new Timer(true);
+        sslContext = null;
         socketFactory = null;
         hostnameVerifier = null;
     }
 
+    /**
+     * Note how a POST went, for statistics.
+     * @param nanos     How long it took (ns).
+     * @param status    HTTP status, or 0 if there was no response.
+     */
+    protected void observe(long nanos, int status) {
+        postNanos.add(nanos);
+        responses[Math.max(0, Math.min(status / 100, 5))].increment();
+    }
+
+    /**
+     * Get the number of messages put in POSTs so far.
+     * @return          Count.
+     */
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    /**
+     * Get the number of POSTs that got a given class of response.
+     * @param statusClass  First digit of the HTTP status (1-5), or 0 for
+     *                  no response at all.
+     * @return          Count.
+     */
+    public long getResponses(int statusClass) {
+        return responses[statusClass].sum();
+    }
+
+    /**
+     * Get the number of POSTs done so far.
+     * @return          Count.
+     */
+    public long getPosts() {
+        long ret = 0;
+        for (LongAdder r: responses)
+            ret += r.sum();
+        return ret;
+    }
+
+    /**
+     * Get the total time spent doing POSTs so far.
+     * @return          Time (seconds).
+     */
+    public double getPostSeconds() {
+        return postNanos.sum() / 1.0e9;
+    }
+
     /*
      * We require all three properties (URL, authenticator, fingerprint) be
      * specified. This is so insecure configurations must be explicit.
@@ -93,6 +222,17 @@ public class HttpOutputThread extends Thread {
         return ret;
     }
 
+    protected long parseLong(Properties props, String name, long def) {
+        String s = props.getProperty(name);
+        if (s == null)
+            return def;
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad " + name + " - " + s);
+        }
+    }
+
     private byte[] parseFing(String s) {
         String s2 = s.replaceAll(":", "");
         int len = s2.length();
@@ -112,24 +252,194 @@ public class HttpOutputThread extends Thread {
     public void run() {
         if (!useStdAuth)
             bypassSslAuth(fingerprint);
+        if (retrier != null)
+            retrier.start();
+        drainSpool();
+        if (batchSize > 1)
+            runBatched();
+        else
+            runSingly();
+        finish();
+        if (retrier != null)
+            retrier.shutdown();
+        if (spool != null)
+            spool.close();
+    }
+
+    /*
+     * Read messages, blocking until some arrive, unless there's spooled
+     * stuff to retry sending; in that case, wait only until it's time.
+     */
+    private void read(List<DemodMessage> batch, int max) throws InterruptedException {
+        if (spool == null || spool.isEmpty())
+            in.drainTo(batch, max);
+        else
+            in.drainTo(batch, max, Math.max(1L, nextRetry - System.currentTimeMillis()));
+    }
+
+    private void runSingly() {
         demodMessage = null;
+        List<DemodMessage> batch = new ArrayList<DemodMessage>(BATCH_SIZE);
         while (true) {
+            batch.clear();
             try {
-                demodMessage = in.read();
+                read(batch, BATCH_SIZE);
             } catch (InterruptedException e) {
                 break;
             }
-            if (demodMessage == null)
+            for (DemodMessage m: batch) {
+                if (m == null)
+                    return;
+                demodMessage = m;
+                try {
+                    sendMessage();
+                } catch (Exception e) {
+                    System.err.println("Unexpected exception in sendMessage:");
+                    e.printStackTrace();
+                }
+            }
+            drainSpool();
+        }
+    }
+
+    /*
+     * Gather up to batchSize messages, waiting no more than batchTime ms
+     * after the first one arrives, and POST them all at once.
+     */
+    private void runBatched() {
+        List<DemodMessage> batch = new ArrayList<DemodMessage>(batchSize);
+        boolean done = false;
+        while (!done) {
+            batch.clear();
+            try {
+                read(batch, batchSize);
+                long deadline = System.currentTimeMillis() + batchTime;
+                while (batch.size() < batchSize && !batch.contains(null)) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0 || in.drainTo(batch, batchSize - batch.size(), remaining) == 0)
+                        break;
+                }
+            } catch (InterruptedException e) {
                 break;
+            }
+            /* a null means exit, after sending what came before it */
+            int end = batch.indexOf(null);
+            if (end >= 0) {
+                batch.subList(end, batch.size()).clear();
+                done = true;
+            }
             try {
-                sendMessage();
+                sendBatch(batch);
             } catch (Exception e) {
-                System.err.println("Unexpected exception in sendMessage:");
+                System.err.println("Unexpected exception in sendBatch:");
                 e.printStackTrace();
             }
+            drainSpool();
+        }
+    }
+
+    /*
+     * If it's time to, try sending what's in the spool, oldest first,
+     * stopping at the first failure.
+     */
+    private void drainSpool() {
+        if (spool == null || System.currentTimeMillis() < nextRetry)
+            return;
+        try {
+            byte[] rec;
+            while ((rec = spool.peek()) != null) {
+                if (!allowed() || !postNow(new String(rec, UTF8))) {
+                    nextRetry = System.currentTimeMillis() + retryTime;
+                    return;
+                }
+                spool.remove();
+            }
+        } catch (IOException e) {
+            System.err.format("%s: unable to read spool - %s%n", Main.MYNAME, Main.getMessage(e));
+        }
+    }
+
+    /**
+     * If there's a backlog of unsent messages in the spool, add this one
+     * to it, so that messages get sent in order.
+     * @param jString   JSON to send.
+     * @return          Whether it was spooled.
+     */
+    protected boolean spoolIfBacklogged(String jString) {
+        if (spool == null || spool.isEmpty())
+            return false;
+        giveUp(jString);
+        return true;
+    }
+
+    /**
+     * Return whether the circuit breaker (if any) allows sending now.
+     * @return          Whether to send.
+     */
+    protected boolean allowed() {
+        return breaker == null || breaker.allow();
+    }
+
+    /**
+     * Report the outcome of a POST to the circuit breaker (if any).
+     * @param ok        Whether the POST succeeded.
+     */
+    protected void record(boolean ok) {
+        if (breaker == null)
+            return;
+        if (ok)
+            breaker.success();
+        else
+            breaker.failure();
+    }
+
+    /**
+     * Handle a failure to send, by retrying later if retries are enabled,
+     * else giving up on it.
+     * @param jString   JSON that was not sent.
+     */
+    protected void failed(String jString) {
+        if (retrier == null)
+            giveUp(jString);
+        else
+            retrier.schedule(jString);
+    }
+
+    /**
+     * Give up trying to send, by spooling what could not be sent if
+     * spooling is enabled. Otherwise, it is lost.
+     * @param jString   JSON that was not sent.
+     */
+    void giveUp(String jString) {
+        if (spool == null)
+            return;
+        try {
+            if (spool.isEmpty())
+                nextRetry = System.currentTimeMillis() + retryTime;
+            if (!spool.append(jString.getBytes(UTF8)))
+                System.err.format("%s: spool full, message lost%n", Main.MYNAME);
+        } catch (IOException|IllegalArgumentException e) {
+            System.err.format("%s: unable to spool message - %s%n", Main.MYNAME, Main.getMessage(e));
         }
     }
 
+    /**
+     * Return whether a request that got the specified HTTP status is
+     * worth trying again later.
+     * @param status    HTTP status.
+     * @return          Whether to retry.
+     */
+    protected static boolean retryable(int status) {
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    /**
+     * Called after the last message has been sent. Subclasses that send
+     * asynchronously should wait here for what they have sent to complete.
+     */
+    protected void finish() {
+    }
+
     /*
      * We authenticate SSL certs based on their fingerprint instead of
      * using the standard means. That is because SSL certs have limited
@@ -159,9 +469,11 @@ public class HttpOutputThread extends Thread {
             }
         }
 
-        // Create a trust manager
+        // Create a trust manager. It must be an extended one, else some
+        // clients (e.g. java.net.http) wrap it in one that checks the
+        // host name anyhow.
         TrustManager[] trustManager = new TrustManager[] {
-            new X509TrustManager() {
+            new X509ExtendedTrustManager() {
                 public X509Certificate[] getAcceptedIssuers() {
                     return null;
                 }
@@ -174,6 +486,22 @@ public class HttpOutputThread extends Thread {
                     matchFing(certs);
                 }
 
+                public void checkClientTrusted(X509Certificate[] certs, String authType, Socket socket) throws CertificateException {
+                    matchFing(certs);
+                }
+
+                public void checkServerTrusted(X509Certificate[] certs, String authType, Socket socket) throws CertificateException {
+                    matchFing(certs);
+                }
+
+                public void checkClientTrusted(X509Certificate[] certs, String authType, SSLEngine engine) throws CertificateException {
+                    matchFing(certs);
+                }
+
+                public void checkServerTrusted(X509Certificate[] certs, String authType, SSLEngine engine) throws CertificateException {
+                    matchFing(certs);
+                }
+
                 private void matchFing(X509Certificate[] certs) throws CertificateException {
                     if (fing == null)
                         return;
@@ -194,7 +522,6 @@ public class HttpOutputThread extends Thread {
         };
 
         // Install the trust manager
-        SSLContext sslContext = null;
         try {
             sslContext = SSLContext.getInstance("SSL");
         } catch (NoSuchAlgorithmException e) {
@@ -216,22 +543,89 @@ public class HttpOutputThread extends Thread {
         socketFactory = sslContext.getSocketFactory();
     }
 
+    /**
+     * Get the SSL context set up by bypassSslAuth.
+     * @return          SSL context, or null if using standard authentication.
+     */
+    protected SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * Get the URL we POST to.
+     * @return          URL.
+     */
+    protected URL getUrl() {
+        return url;
+    }
+
     private void sendMessage() throws Exception {
-        // Get raw message; silently discard bad messages.
-        String rawMessage = demodMessage.getRawAsString();
-        if (rawMessage == null)
+        // Build a JSON message; silently discard bad messages.
+        JsonObject jObject = toJson(demodMessage);
+        if (jObject == null)
             return;
+        messages.increment();
+        post(jObject.toString());
+    }
 
-        // Build a JSON message.
-        String jString = Json.createObjectBuilder()
+    private void sendBatch(List<DemodMessage> batch) throws Exception {
+        // Build a JSON array of messages; silently discard bad messages.
+        JsonArrayBuilder builder = Json.createArrayBuilder();
+        int count = 0;
+        for (DemodMessage m: batch) {
+            JsonObject jObject = toJson(m);
+            if (jObject != null) {
+                builder.add(jObject);
+                count++;
+            }
+        }
+        if (count > 0) {
+            messages.add(count);
+            post(builder.build().toString());
+        }
+    }
+
+    private JsonObject toJson(DemodMessage m) {
+        String rawMessage = m.getRawAsString();
+        if (rawMessage == null)
+            return null;
+        return Json.createObjectBuilder()
                 .add("auth", auth)
-                .add("time", JSON_TIME.format(demodMessage.getTime()))
-                .add("channel", demodMessage.getChannel())
+                .add("time", JSON_TIME.format(m.getTime()))
+                .add("channel", m.getChannel())
                 .add("message", rawMessage)
-                .build().toString();
+                .build();
+    }
+
+    /**
+     * POST a JSON object or array to our URL, spooling it if it can't be
+     * sent right now.
+     * @param jString   JSON to send.
+     */
+    protected void post(String jString) throws Exception {
+        if (spoolIfBacklogged(jString))
+            return;
+        if (!allowed() || !postNow(jString))
+            failed(jString);
+    }
 
+    /*
+     * Returns false if the POST failed, but might succeed if retried.
+     * Must only be called if allowed() says it's OK.
+     */
+    boolean postNow(String jString) {
+        boolean ok = postOnce(jString);
+        record(ok);
+        return ok;
+    }
+
+    private boolean postOnce(String jString) {
         // POST it.
         NetworkTimeout timeout = new NetworkTimeout();
+        PostEvent event = new PostEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int status = 0;
         try {
             // Be paranoid; don't trust the built-in timeouts to prevent
             // constipation in all cases. xxx - This won't strictly enforce
@@ -256,9 +650,6 @@ public class HttpOutputThread extends Thread {
             conn.setRequestProperty("User-Agent", Main.MYNAME);
             conn.setDoOutput(true);
             checkForInterrupt();
-            // Debug
-            System.out.println("Sending data:");
-            System.out.println(jString);
             // Send POST data.
             try (OutputStream stream = conn.getOutputStream()) {
                 stream.write(jString.getBytes(UTF8));
@@ -266,7 +657,7 @@ public class HttpOutputThread extends Thread {
             }
             // Verify we got a successful response.
             checkForInterrupt();
-            int status = conn.getResponseCode();
+            status = conn.getResponseCode();
             if (!(status >= 200 && status <= 299)) {
                 checkForInterrupt();
                 System.err.format("%s: got %03d", Main.MYNAME, status);
@@ -274,9 +665,21 @@ public class HttpOutputThread extends Thread {
                 if (message != null)
                     System.err.format(" %s", message);
                 System.err.println(" response");
+                return !retryable(status);
             }
+            return true;
+        } catch (Exception e) {
+            System.err.format("%s: POST failed - %s%n", Main.MYNAME, Main.getMessage(e));
+            return false;
         } finally {
             timeout.cancel();
+            observe(System.nanoTime() - start, status);
+            if (event.shouldCommit()) {
+                event.url = url.toString();
+                event.bytes = jString.getBytes(UTF8).length;
+                event.status = status;
+                event.commit();
+            }
         }
     }
 
@@ -0,0 +1,179 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Write demodulated ACARS to files, one JSON object per line ("JSON
+ * Lines" format). A new file is started every hour, or sooner if the
+ * current one gets too big, so that completed files can be picked up by
+ * other programs. Writes are forced to disk in groups, at most once per
+ * sync interval, rather than once per message.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class JsonFileOutputThread extends Thread {
+    private MessageChannel<DemodMessage> in;
+    private File dir;
+    private long maxSize;
+    private long syncInterval;
+
+    private FileChannel file;
+    private long fileSize;
+    private String fileHour;
+    private boolean dirty;
+    private long lastSync;
+    private ByteBuffer buf;
+    private SimpleDateFormat hourTime;
+    private MessageJson json;
+
+    /* most messages we take from our input in one go */
+    private static final int BATCH_SIZE = 64;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte NEWLINE = '\n';
+
+    /**
+     * Construct a new JSON file writer.
+     * @param in        Channel to read messages from.
+     * @param dir       Directory to write files in.
+     * @param maxSize   Size at which to start a new file (bytes).
+     * @param syncInterval  How often to force data to disk (ms).
+     */
+    public JsonFileOutputThread(MessageChannel<DemodMessage> in, File dir, long maxSize, long syncInterval) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("unable to create " + dir);
+        this.in = in;
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.syncInterval = syncInterval;
+        file = null;
+        fileSize = 0;
+        fileHour = null;
+        dirty = false;
+        lastSync = 0;
+        buf = ByteBuffer.allocate(64 * 1024);
+        /* these aren't thread-safe, so each writer gets its own */
+        hourTime = new SimpleDateFormat("yyyyMMdd'T'HH'Z'");
+        hourTime.setTimeZone(TimeZone.getTimeZone("GMT"));
+        json = new MessageJson();
+    }
+
+    public void run() {
+        List<DemodMessage> batch = new ArrayList<DemodMessage>(BATCH_SIZE);
+        boolean done = false;
+        try {
+            while (!done) {
+                batch.clear();
+                /* if there's unsynced data, don't wait past when it's due */
+                if (dirty)
+                    in.drainTo(batch, BATCH_SIZE, Math.max(1L, lastSync + syncInterval - System.currentTimeMillis()));
+                else
+                    in.drainTo(batch, BATCH_SIZE);
+                for (DemodMessage m: batch) {
+                    if (m == null) {
+                        done = true;
+                        break;
+                    }
+                    writeMessage(m);
+                }
+                flush();
+                if (dirty && System.currentTimeMillis() - lastSync >= syncInterval)
+                    sync();
+            }
+        } catch (InterruptedException e) {
+            /* just exit */
+        } catch (IOException e) {
+            System.err.format("%s: unable to write JSON file - %s%n", Main.MYNAME, Main.getMessage(e));
+        }
+        try {
+            close();
+        } catch (IOException e) {
+            System.err.format("%s: unable to close JSON file - %s%n", Main.MYNAME, Main.getMessage(e));
+        }
+    }
+
+    private void writeMessage(DemodMessage m) throws IOException {
+        /* silently discard bad messages, as HttpOutputThread does */
+        String jString = json.toJson(m);
+        if (jString == null)
+            return;
+        byte[] line = jString.getBytes(UTF8);
+
+        /*
+         * Start a new file if it's a later hour or this one is full. Messages
+         * can arrive a bit out of order, so one from an earlier hour just
+         * goes in the current file; the names sort in time order, so later
+         * is simply greater.
+         */
+        String hour = hourTime.format(m.getTime());
+        if (file == null || hour.compareTo(fileHour) > 0)
+            rotate(hour);
+        else if (fileSize > 0 && fileSize + buf.position() + line.length + 1 > maxSize)
+            rotate(fileHour);
+
+        if (buf.remaining() < line.length + 1) {
+            flush();
+            if (buf.capacity() < line.length + 1)
+                buf = ByteBuffer.allocate(line.length + 1);
+        }
+        buf.put(line).put(NEWLINE);
+    }
+
+    /* write out what's buffered */
+    private void flush() throws IOException {
+        if (file == null || buf.position() == 0)
+            return;
+        buf.flip();
+        while (buf.hasRemaining())
+            fileSize += file.write(buf);
+        buf.clear();
+        dirty = true;
+    }
+
+    private void sync() throws IOException {
+        file.force(false);
+        dirty = false;
+        lastSync = System.currentTimeMillis();
+    }
+
+    private void rotate(String hour) throws IOException {
+        close();
+        File f;
+        int n = 0;
+        do {
+            String name = Main.MYNAME.toLowerCase() + "-" + hour + (n == 0 ? "" : "-" + n) + ".jsonl";
+            f = new File(dir, name);
+            n++;
+        } while (f.exists());
+        file = FileChannel.open(f.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        fileSize = 0;
+        fileHour = hour;
+        lastSync = System.currentTimeMillis();
+    }
+
+    private void close() throws IOException {
+        if (file == null)
+            return;
+        flush();
+        if (dirty)
+            sync();
+        file.close();
+        file = null;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.*;
+
+/**
+ * Reads audio from a sound card, via an input line of one of the mixers
+ * Java knows about.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class LineSource extends PcmSource {
+    private TargetDataLine line;
+    private String name;
+    private byte[] buf;
+    private ByteBuffer bbuf;
+    private boolean started;
+    private long time;
+
+    /** The sample rate we ask for (Hz). */
+    public static final int RATE = 44100;
+
+    /* sample size (bits) */
+    private static final int SSIZE = 8 * SAMPLE_SIZE;
+
+    private LineSource(TargetDataLine line, String name) {
+        super(line.getFormat().getChannels(), line.getFormat().getSampleRate());
+        this.line = line;
+        this.name = name;
+        buf = new byte[0];
+        started = false;
+        time = 0;
+    }
+
+    /**
+     * Open an input line.
+     * @param mixerId   Mixer number, as listed by --list.
+     * @param lineId    Line number, as listed by --list.
+     * @param channels  Number of channels to open, or -1 to try 2, then 1.
+     * @param gain      Gain to set, or null to leave it alone.
+     * @return          A source that reads from the line.
+     */
+    public static LineSource open(int mixerId, int lineId, int channels, Float gain) throws IOException {
+        // Get the mixer and line to use
+        Mixer.Info[] mix = AudioSystem.getMixerInfo();
+        if (mixerId < 0 || mixerId >= mix.length)
+            throw new IOException("invalid mixer ID " + mixerId);
+        Mixer.Info mi = mix[mixerId];
+        Mixer mixer = AudioSystem.getMixer(mi);
+        Line.Info[] lix = mixer.getTargetLineInfo();
+        if (lineId < 0 || lineId >= lix.length)
+            throw new IOException("invalid line ID " + lineId);
+        TargetDataLine line = null;
+        try {
+            line = (TargetDataLine) mixer.getLine(lix[lineId]);
+        } catch (LineUnavailableException|IllegalArgumentException|SecurityException e) {
+            throw new IOException(Main.getMessage(e), e);
+        }
+
+        // Determine number of channels then open the device. Default is to
+        // try using 2 channels; if that fails, try 1. Note that if you
+        // change the encoding, you'll have to change PcmSource! Note
+        // that encodings other than PCM_SIGNED tend in my experience to
+        // fail, sometimes exposing apparent bugs in the Java runtime (e.g.
+        // reads block forever).
+        int[] tries = channels == -1 ? new int[] { 2, 1 } : new int[] { channels };
+        Exception badOpen = null;
+        for (int tryChannels : tries) {
+            try {
+                line.open(format(tryChannels));
+                badOpen = null;
+                break;
+            } catch (LineUnavailableException|IllegalArgumentException|IllegalStateException|SecurityException e) {
+                badOpen = e;
+            }
+        }
+        if (badOpen != null)
+            throw new IOException(Main.getMessage(badOpen), badOpen);
+
+        // Set gain if requested
+        if (gain != null) {
+            Control.Type[] types = { FloatControl.Type.MASTER_GAIN, FloatControl.Type.VOLUME };
+            boolean found = false;
+            for (Control.Type type : types) {
+                if (line.isControlSupported(type)) {
+                    FloatControl gainControl = (FloatControl) line.getControl(type);
+                    try {
+                        gainControl.setValue(gain);
+                    } catch (IllegalArgumentException e) {
+                        line.close();
+                        throw new IOException("invalid gain: " + gain);
+                    }
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                line.close();
+                throw new IOException("no gain control available");
+            }
+        }
+
+        return new LineSource(line, String.format("input line %d of mixer %d (%s)", lineId, mixerId, mi.getName()));
+    }
+
+    private static AudioFormat format(int channels) {
+        return new AudioFormat(
+                AudioFormat.Encoding.PCM_SIGNED, // encoding
+                (float) RATE, // sample rate
+                SSIZE, // sample size (bits)
+                channels, // channels
+                channels * SSIZE / 8, // frame size (bytes)
+                (float) RATE, // frame rate
+                ByteOrder.nativeOrder().equals(ByteOrder.BIG_ENDIAN) // big endian?
+                );
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isLive() {
+        return true;
+    }
+
+    public int read(float[][] out, int[] select) throws IOException {
+        int frames = out[0].length;
+        if (buf.length != frames * frameSize) {
+            buf = new byte[frames * frameSize];
+            bbuf = ByteBuffer.wrap(buf).order(ByteOrder.nativeOrder());
+        }
+        if (!started) {
+            line.start();
+            started = true;
+        }
+        int nbytes = line.read(buf, 0, buf.length);
+        if (nbytes != buf.length)
+            throw new IOException("audio device got closed");
+        /* the block was being recorded for as long as it lasts */
+        time = System.currentTimeMillis() - Math.round(frames * 1000.0 / rate);
+        bbuf.clear();
+        deinterleave(bbuf, frames, out, select, 0);
+        return frames;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void close() {
+        line.close();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Common logic for channels that don't use locks. All such channels have
+ * a single reader thread, which waits for data according to a selectable
+ * strategy; writers must call wake() after making data available.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public abstract class LockFreeChannel<T> implements MessageChannel<T> {
+    /* how many times to spin before parking */
+    private static final int SPINS = 1000;
+
+    /* returned by take() when there's nothing to take */
+    protected static final Object NONE = new Object();
+
+    private WaitStrategy wait;
+    private volatile Thread waiter;
+    private volatile Consumer<? super T> dropHandler;
+
+    protected LockFreeChannel(WaitStrategy wait) {
+        this.wait = wait;
+        waiter = null;
+        dropHandler = null;
+    }
+
+    public void setDropHandler(Consumer<? super T> handler) {
+        dropHandler = handler;
+    }
+
+    /**
+     * Pass an item lost for want of room to the drop handler, if any.
+     * @param item      Item lost.
+     */
+    @SuppressWarnings("unchecked")
+    protected void dropped(Object item) {
+        Consumer<? super T> handler = dropHandler;
+        if (item != null && item != NONE && handler != null)
+            handler.accept((T) item);
+    }
+
+    /**
+     * Return whether there is currently no data to be read.
+     * @return          Whether empty.
+     */
+    protected abstract boolean isEmpty();
+
+    /**
+     * Remove and return the oldest item, without waiting.
+     * @return          The item, or NONE if there isn't one.
+     */
+    protected abstract Object take();
+
+    /**
+     * Read a single item from this channel, blocking if needed. Must only
+     * be called from one thread.
+     * @return          The item read.
+     */
+    @SuppressWarnings("unchecked")
+    public T read() throws InterruptedException {
+        int spins = 0;
+        while (true) {
+            Object ret = take();
+            if (ret != NONE)
+                return (T) ret;
+            await(spins++);
+        }
+    }
+
+    public int drainTo(Collection<? super T> dest, int max) throws InterruptedException {
+        return drain(dest, max, false, 0L);
+    }
+
+    public int drainTo(Collection<? super T> dest, int max, long timeout) throws InterruptedException {
+        return drain(dest, max, true, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    @SuppressWarnings("unchecked")
+    private int drain(Collection<? super T> dest, int max, boolean timed, long deadline) throws InterruptedException {
+        int spins = 0;
+        Object first;
+        while ((first = take()) == NONE) {
+            if (timed && deadline - System.nanoTime() <= 0)
+                return 0;
+            await(spins++, timed, deadline);
+        }
+        dest.add((T) first);
+        int n = 1;
+        while (n < max) {
+            Object item = take();
+            if (item == NONE)
+                break;
+            dest.add((T) item);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Wait once for data to arrive. Callers must loop, rechecking for data
+     * each time this returns.
+     * @param spins     How many times we've already waited for this read.
+     * @throws InterruptedException If interrupted.
+     */
+    protected void await(int spins) throws InterruptedException {
+        await(spins, false, 0L);
+    }
+
+    /**
+     * Wait once for data to arrive, possibly giving up at a specified time.
+     * @param spins     How many times we've already waited for this read.
+     * @param timed     Whether there is a deadline.
+     * @param deadline  System.nanoTime() value to give up at.
+     * @throws InterruptedException If interrupted.
+     */
+    protected void await(int spins, boolean timed, long deadline) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        switch (wait) {
+        case SPIN:
+            /* spin for a while, then park like PARK does */
+            if (spins >= SPINS)
+                park(timed, deadline);
+            break;
+        case PARK:
+            park(timed, deadline);
+            break;
+        case YIELD:
+            Thread.yield();
+            break;
+        }
+    }
+
+    private void park(boolean timed, long deadline) {
+        waiter = Thread.currentThread();
+        /* recheck, else we could miss a wakeup */
+        if (isEmpty()) {
+            if (timed)
+                LockSupport.parkNanos(this, deadline - System.nanoTime());
+            else
+                LockSupport.park(this);
+        }
+        waiter = null;
+    }
+
+    /**
+     * Wake the reader, if it is parked.
+     */
+    protected void wake() {
+        Thread w = waiter;
+        if (w != null)
+            LockSupport.unpark(w);
+    }
+}
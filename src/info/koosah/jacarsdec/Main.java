@@ -7,11 +7,12 @@
 package info.koosah.jacarsdec;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.sound.sampled.*;
@@ -26,8 +27,7 @@ import org.apache.commons.cli.*;
 public class Main {
 
     public static final String MYNAME = "Jacarsdec";
-    private static final int SSIZE = 16;  // sample size (bits)
-    private static final int RATE = 44100;  // sample rate (Hz)
+    private static final int DEMOD_RATE = 12500;  // default demod rate (Hz)
 
     public static CommandLine cmdLine;
 
@@ -45,6 +45,40 @@ public class Main {
         options.addOption(new Option("v", "verbose", false, "Show some debug info."));
         options.addOption(new Option("g", "gain", true, "Audio gain."));
         options.addOption(new Option("p", "post", true, "HTTP POST mode, expects properties file."));
+        options.addOption(new Option(null, "json", true, "JSON Lines file mode, expects directory to write files in."));
+        options.addOption(new Option(null, "json-size", true, "Size at which to start a new JSON file (MB)."));
+        options.addOption(new Option(null, "json-sync", true, "How often to force JSON output to disk (ms)."));
+        options.addOption(new Option(null, "binary", true, "Binary (acarsdec -o 6) mode, expects file, - (standard output), or tcp:host:port."));
+        options.addOption(new Option(null, "archive", true, "Archive mode, expects directory to keep searchable archive in."));
+        options.addOption(new Option(null, "archive-size", true, "Size at which to start a new archive segment (MB)."));
+        options.addOption(new Option(null, "archive-days", true, "How long to keep archived messages (days)."));
+        options.addOption(new Option(null, "archive-sync", true, "How often to force archive output to disk (ms)."));
+        options.addOption(new Option(null, "api", true, "HTTP API mode, expects [host:]port to listen on."));
+        options.addOption(new Option(null, "api-size", true, "Number of recent messages the HTTP API serves."));
+        options.addOption(new Option(null, "api-subscribers", true, "Most HTTP API event stream subscribers at once."));
+        options.addOption(new Option(null, "api-queue", true, "Messages buffered per event stream subscriber."));
+        options.addOption(new Option(null, "metrics", true, "Serve Prometheus metrics on [host:]port."));
+        options.addOption(new Option(null, "console", false, "Also print messages when using other outputs."));
+        options.addOption(new Option(null, "sink-size", true, "Buffer size for each output, when using several."));
+        options.addOption(new Option(null, "dedup", true, "Suppress duplicate messages seen within this time (ms)."));
+        options.addOption(new Option(null, "dedup-hold", true, "How long to hold messages, awaiting better duplicates (ms)."));
+        options.addOption(new Option(null, "dedup-size", true, "Maximum number of messages remembered for duplicate suppression."));
+        options.addOption(new Option(null, "reassemble", true, "Join multi-block messages, waiting this long for each block (ms)."));
+        options.addOption(new Option(null, "reassemble-size", true, "Maximum number of partial messages kept for reassembly."));
+        options.addOption(new Option(null, "oscillator", true, "Demod oscillator: exact (default), table, or phasor."));
+        options.addOption(new Option(null, "demod-rate", true, "Approximate internal demod sample rate (Hz)."));
+        options.addOption(new Option(null, "input-ring", true, "Use lock-free input buffers; reader waits by park, spin, or yield."));
+        options.addOption(new Option(null, "output-ring", true, "Use lock-free output buffer; output thread waits by park, spin, or yield."));
+        options.addOption(new Option(null, "input-policy", true, "When input buffer full: drop-oldest (default), drop-newest, or block."));
+        options.addOption(new Option(null, "output-policy", true, "When output buffer full: drop-oldest (default), drop-newest, block, or spill."));
+        options.addOption(new Option(null, "block-timeout", true, "Longest to wait for room in a full buffer (ms)."));
+        options.addOption(new Option(null, "spill-dir", true, "Directory to spill output to when full."));
+        options.addOption(new Option(null, "spill-max", true, "Maximum size of output spill file (MB)."));
+        options.addOption(new Option(null, "file", true, "Read from a WAV or raw 16-bit PCM file instead of a line."));
+        options.addOption(new Option(null, "stream", true, "Read raw 16-bit PCM from - (standard input), a named pipe, or tcp:[host:]port."));
+        options.addOption(new Option(null, "rate", true, "Sample rate of a raw input file, stream, or test signal (Hz)."));
+        options.addOption(new Option(null, "synthetic", true, "Generate this many test messages instead of reading input."));
+        options.addOption(new Option(null, "stats", true, "Print buffer statistics to stderr at this interval (s)."));
         try {
             cmdLine = (new DefaultParser()).parse(options, args);
         } catch (org.apache.commons.cli.ParseException e) {
@@ -52,7 +86,7 @@ public class Main {
             System.exit(2);
         }
         if (cmdLine.hasOption("help")) {
-            (new HelpFormatter()).printHelp(MYNAME + " [options] mixer line", options);
+            (new HelpFormatter()).printHelp(MYNAME + " [options] mixer line | --file=file | --stream=source | --synthetic=count", options);
             System.exit(0);
         }
 
@@ -100,132 +134,78 @@ public class Main {
     }
 
     private static void demodulateAcars() {
-        // Get mixer and line IDs
-        String[] args = cmdLine.getArgs();
-        if (args.length != 2) {
-            System.err.format("%s: expecting mixer and line IDs%n", MYNAME);
-            System.exit(1);
-        }
-        int mixerId = toInt("mixer", args[0]);
-        int lineId = toInt("line", args[1]);
-
-        // Get the mixer and line to use
-        Mixer.Info[] mix = AudioSystem.getMixerInfo();
-        Mixer.Info mi = null;
-        try {
-            mi = mix[mixerId];
-        } catch (IndexOutOfBoundsException e) {
-            System.err.format("%s: invalid mixer ID %d%n", MYNAME, mixerId);
-            System.exit(1);
+        // Open the file, stream, test signal, or line to read from.
+        String inFile = cmdLine.getOptionValue("file");
+        String inStream = cmdLine.getOptionValue("stream");
+        String inSynthetic = cmdLine.getOptionValue("synthetic");
+        String other = null;
+        for (String opt : new String[] { "file", "stream", "synthetic" }) {
+            if (!cmdLine.hasOption(opt))
+                continue;
+            if (other != null) {
+                System.err.format("%s: --%s and --%s are mutually exclusive%n", MYNAME, other, opt);
+                System.exit(2);
+            }
+            other = opt;
         }
-        Mixer mixer = AudioSystem.getMixer(mi);
-        Line.Info[] lix = mixer.getTargetLineInfo();
-        Line.Info li = null;
-        try {
-            li = lix[lineId];
-        } catch (IndexOutOfBoundsException e) {
-            System.err.format("%s: invalid line ID %d%n", MYNAME, lineId);
+        if (other != null && cmdLine.getArgs().length != 0) {
+            System.err.format("%s: not expecting mixer and line IDs with --%s%n", MYNAME, other);
             System.exit(1);
         }
-        TargetDataLine line = null;
+        SampleSource source = null;
         try {
-            line = (TargetDataLine) mixer.getLine(li);
-        } catch (LineUnavailableException|IllegalArgumentException|SecurityException e) {
-            System.err.format("%s: %s%n", MYNAME, getMessage(e));
-            System.exit(1);
-        }
-
-        // Determine number of channels then open the device. Default is to
-        // try using 2 channels; if that fails, try 1. Note that if you
-        // change the encoding, you'll have to change ReaderThread! Note
-        // that encodings other than PCM_SIGNED tend in my experience to
-        // fail, sometimes exposing apparent bugs in the Java runtime (e.g.
-        // reads block forever).
-        boolean bigEndian = ByteOrder.nativeOrder().equals(ByteOrder.BIG_ENDIAN);
-        int channels = toInt("channels", -1);
-        if (channels == -1) {
-            AudioFormat[] formats = {
-                new AudioFormat(
-                    AudioFormat.Encoding.PCM_SIGNED, // encoding
-                    (float) RATE, // sample rate
-                    SSIZE, // sample size (bits)
-                    2, // channels
-                    2 * SSIZE / 8, // frame size (bytes)
-                    (float) RATE, // frame rate
-                    bigEndian // big endian?
-                ),
-                new AudioFormat(
-                    AudioFormat.Encoding.PCM_SIGNED, // encoding
-                    (float) RATE, // sample rate
-                    SSIZE, // sample size (bits)
-                    1, // channels
-                    SSIZE / 8, // frame size (bytes)
-                    (float) RATE, // frame rate
-                    bigEndian // big endian?
-                    ) };
-            Exception badOpen = null;
-            for (AudioFormat format : formats) {
+            if (inFile != null) {
                 try {
-                    channels = format.getChannels();
-                    line.open(format);
-                    badOpen = null;
-                    break;
-                } catch (LineUnavailableException|IllegalArgumentException|IllegalStateException|SecurityException e) {
-                    badOpen = e;
+                    source = new FileSource(PcmFile.open(new File(inFile),
+                            toInt("rate", LineSource.RATE), toInt("channels", 1)));
+                } catch (IOException e) {
+                    System.err.format("%s: unable to open %s - %s%n", MYNAME, inFile, getMessage(e));
+                    System.exit(1);
                 }
-            }
-            if (badOpen != null) {
-                System.err.format("%s: %s%n", MYNAME, getMessage(badOpen));
-                System.exit(1);
-            }
-        } else {
-            AudioFormat format = new AudioFormat(
-                    AudioFormat.Encoding.PCM_SIGNED, // encoding
-                    (float) RATE, // sample rate
-                    SSIZE, // sample size (bits)
-                    channels, // channels
-                    channels * SSIZE / 8, // frame size (bytes)
-                    (float) RATE, // frame rate
-                    bigEndian // big endian?
-                    );
-            try {
-                line.open(format);
-            } catch (LineUnavailableException|IllegalArgumentException|IllegalStateException|SecurityException e) {
-                System.err.format("%s: %s%n", MYNAME, getMessage(e));
-                System.exit(1);
-            }
-        }
-
-        // Set gain if requested
-        String rgain = cmdLine.getOptionValue("gain");
-        if (rgain != null) {
-            float gain = 0.0f;
-            try {
-                gain = Float.parseFloat(rgain);
-            } catch (NumberFormatException e) {
-                System.err.format("%s: invalid gain: %s%n", MYNAME, rgain);
-                System.exit(1);
-            }
-            Control.Type[] types = { FloatControl.Type.MASTER_GAIN, FloatControl.Type.VOLUME };
-            boolean found = false;
-            for (Control.Type type : types) {
-                if (line.isControlSupported(type)) {
-                    FloatControl gainControl = (FloatControl) line.getControl(type);
+            } else if (inStream != null) {
+                int channels = toInt("channels", 1);
+                int rate = toInt("rate", LineSource.RATE);
+                if (channels < 1 || rate <= 0) {
+                    System.err.format("%s: invalid rate or channels for --stream%n", MYNAME);
+                    System.exit(1);
+                }
+                try {
+                    source = new StreamSource(inStream, channels, rate);
+                } catch (IOException e) {
+                    System.err.format("%s: unable to open %s - %s%n", MYNAME, inStream, getMessage(e));
+                    System.exit(1);
+                }
+            } else if (inSynthetic != null) {
+                source = new SyntheticSource(toInt("rate", LineSource.RATE), toInt("channels", 1),
+                        toInt("synthetic", inSynthetic));
+            } else {
+                // Get mixer and line IDs
+                String[] args = cmdLine.getArgs();
+                if (args.length != 2) {
+                    System.err.format("%s: expecting mixer and line IDs%n", MYNAME);
+                    System.exit(2);
+                }
+                int mixerId = toInt("mixer", args[0]);
+                int lineId = toInt("line", args[1]);
+                String rgain = cmdLine.getOptionValue("gain");
+                Float gain = null;
+                if (rgain != null) {
                     try {
-                        gainControl.setValue(gain);
-                    } catch (IllegalArgumentException e) {
+                        gain = Float.valueOf(rgain);
+                    } catch (NumberFormatException e) {
                         System.err.format("%s: invalid gain: %s%n", MYNAME, rgain);
                         System.exit(1);
                     }
-                    found = true;
-                    break;
                 }
+                source = LineSource.open(mixerId, lineId, toInt("channels", -1), gain);
             }
-            if (!found) {
-                System.err.format("%s: no gain control available%n", MYNAME);
-                System.exit(1);
-            }
+        } catch (IOException|IllegalArgumentException e) {
+            System.err.format("%s: %s%n", MYNAME, getMessage(e));
+            System.exit(1);
         }
+        int channels = source.getChannels();
+        float rate = source.getRate();
+        String inputName = String.format("%d-channel %s", channels, source.getName());
 
         // Get the channels to actually select. Default is to just select
         // channel 0 (left).
@@ -260,66 +240,335 @@ public class Main {
         // Get other parameters needed to wire things up.
         int inputSize = toInt("input-size", 50);
         int outputSize = toInt("output-size", inputSize * select.length);
+        Oscillator.Mode ncoMode = toEnum("oscillator", Oscillator.Mode.class, Oscillator.Mode.EXACT);
+        int demodRate = toInt("demod-rate", DEMOD_RATE);
+        if (demodRate <= 0) {
+            System.err.format("%s: invalid value for --demod-rate - %d%n", MYNAME, demodRate);
+            System.exit(1);
+        }
+        int decimate = Math.max(1, Math.round(rate / demodRate));
+        WaitStrategy ringWait = toEnum("input-ring", WaitStrategy.class, null);
+        WaitStrategy outWait = toEnum("output-ring", WaitStrategy.class, null);
+        // A file or pipe can always wait for the demod threads to catch
+        // up, so by default nothing from it is ever lost.
+        Channel.Policy inPolicy = toEnum("input-policy", Channel.Policy.class,
+                source.isLive() ? Channel.Policy.DROP_OLDEST : Channel.Policy.BLOCK);
+        Channel.Policy outPolicy = toEnum("output-policy", Channel.Policy.class, Channel.Policy.DROP_OLDEST);
+        if (inPolicy == Channel.Policy.SPILL) {
+            System.err.format("%s: input buffers cannot spill%n", MYNAME);
+            System.exit(1);
+        }
+        if ((ringWait != null && cmdLine.hasOption("input-policy")) || (outWait != null && cmdLine.hasOption("output-policy"))) {
+            System.err.format("%s: lock-free buffers always drop the oldest item%n", MYNAME);
+            System.exit(1);
+        }
+        if (ringWait != null && !source.isLive()) {
+            System.err.format("%s: lock-free input buffers would lose data read from %s%n", MYNAME, source.getName());
+            System.exit(1);
+        }
+        int statsInterval = toInt("stats", 0);
 
         // Allocate message channels
-        ArrayList<Channel<RawMessage>> inChans = new ArrayList<Channel<RawMessage>>(select.length);
+        ArrayList<MpscChannel<DemodMessage>.Producer> producers = new ArrayList<MpscChannel<DemodMessage>.Producer>();
+        ArrayList<MessageChannel<RawMessage>> inChans = new ArrayList<MessageChannel<RawMessage>>(select.length);
         for (int i=0; i<select.length; i++) {
-            inChans.add(new Channel<RawMessage>(inputSize));
+            if (ringWait == null)
+                inChans.add(makeChannel(inputSize, inPolicy, source.isLive() ? 1000 : Integer.MAX_VALUE, null));
+            else
+                inChans.add(new SpscChannel<RawMessage>(inputSize, ringWait));
+        }
+        MpscChannel<DemodMessage> outRing = null;
+        MessageChannel<DemodMessage> outChan;
+        if (outWait == null) {
+            outChan = makeChannel(outputSize, outPolicy, 1000, DemodMessage.CODEC);
+        } else {
+            outRing = new MpscChannel<DemodMessage>(outputSize, outWait);
+            outChan = outRing;
         }
-        Channel<DemodMessage> outChan = new Channel<DemodMessage>(outputSize);
 
-        // Wire things up
-        ReaderThread reader = new ReaderThread(line, channels, select, inChans);
+        // Wire things up. Each channel's buffer pool needs to cover a full
+        // input channel, plus a batch being demodulated and one being read.
+        int poolSize = inputSize + DemodThread.BATCH_SIZE + 1;
+        ReaderThread reader = null;
+        try {
+            reader = new ReaderThread(source, select, inChans, poolSize);
+        } catch (IllegalArgumentException e) {
+            System.err.format("%s: %s%n", MYNAME, getMessage(e));
+            System.exit(1);
+        }
         DemodThread[] demods = new DemodThread[select.length];
         for (int i=0; i<demods.length; i++) {
-            demods[i] = new DemodThread(inChans.get(i), outChan, (float) RATE);
+            // With the lock-free output channel, each demod thread gets
+            // its own producer handle, so losses are blamed correctly.
+            MessageChannel<DemodMessage> demodOut = outChan;
+            if (outRing != null) {
+                MpscChannel<DemodMessage>.Producer producer = outRing.producer(select[i]);
+                producers.add(producer);
+                demodOut = producer;
+            }
+            demods[i] = new DemodThread(inChans.get(i), demodOut, rate, decimate, ncoMode);
         }
-        Thread writer = null;
-        String propsFile = cmdLine.getOptionValue("post");
-        if (propsFile == null) {
-            writer = new StandardOutputThread(outChan);
-        } else {
-            Properties props = new Properties();
-            try (BufferedReader rdr = new BufferedReader(new FileReader(propsFile))) {
-                props.load(rdr);
-            } catch (IOException e) {
-                System.err.format("%s: unable to load properties - %s%n", MYNAME, getMessage(e));
+        // Decide on our outputs ("sinks"); standard output by default. If
+        // there's more than one, a dispatcher copies messages to them all.
+        ArrayList<String> sinks = new ArrayList<String>();
+        for (String sink : new String[] { "post", "json", "binary", "archive", "api", "console" }) {
+            if (cmdLine.hasOption(sink))
+                sinks.add(sink);
+        }
+        if (sinks.isEmpty())
+            sinks.add("console");
+        String binaryDest = cmdLine.getOptionValue("binary");
+        if (sinks.contains("console") && "-".equals(binaryDest)) {
+            System.err.format("%s: --console and --binary=- both write to standard output%n", MYNAME);
+            System.exit(2);
+        }
+        ArrayList<Thread> writers = new ArrayList<Thread>();
+        LinkedHashMap<String, Channel<DemodMessage>> sinkChans = new LinkedHashMap<String, Channel<DemodMessage>>();
+        DispatcherThread dispatcher = null;
+        Deduplicator dedup = null;
+        if (cmdLine.hasOption("dedup")) {
+            int window = toInt("dedup", 30000);
+            int hold = toInt("dedup-hold", 1000);
+            int size = toInt("dedup-size", 1000);
+            if (window < 1 || hold < 0 || size < 1) {
+                System.err.format("%s: invalid duplicate suppression parameters%n", MYNAME);
                 System.exit(1);
             }
+            dedup = new Deduplicator(hold, window, size);
+        }
+        Reassembler reassembler = null;
+        if (cmdLine.hasOption("reassemble")) {
+            int timeout = toInt("reassemble", 30000);
+            int size = toInt("reassemble-size", 100);
+            if (timeout < 1 || size < 1) {
+                System.err.format("%s: invalid reassembly parameters%n", MYNAME);
+                System.exit(1);
+            }
+            reassembler = new Reassembler(timeout, size);
+        }
+        if (sinks.size() == 1 && dedup == null && reassembler == null) {
+            writers.add(makeWriter(sinks.get(0), outChan));
+        } else {
+            int sinkSize = toInt("sink-size", outputSize);
+            dispatcher = new DispatcherThread(outChan);
+            if (dedup != null)
+                dispatcher.setDeduplicator(dedup);
+            if (reassembler != null)
+                dispatcher.setReassembler(reassembler);
+            for (String sink : sinks) {
+                Channel<DemodMessage> sinkChan = new Channel<DemodMessage>(sinkSize);
+                dispatcher.addSink(sink, sinkChan);
+                sinkChans.put(sink, sinkChan);
+                writers.add(makeWriter(sink, sinkChan));
+            }
+        }
+
+        // Serve metrics, if requested.
+        if (cmdLine.hasOption("metrics")) {
+            Metrics metrics = new Metrics();
+            for (int i=0; i<select.length; i++) {
+                String chLabel = Metrics.labels("channel", select[i]);
+                RawMessagePool pool = reader.getPool(i);
+                DemodThread demod = demods[i];
+                metrics.counter("jacarsdec_samples_read_total", "Audio samples read.", chLabel, reader::getSamples);
+                metrics.counter("jacarsdec_pool_exhausted_total", "Times no raw buffer was free for reading into.", chLabel, pool::getExhausted);
+                metrics.counter("jacarsdec_syncs_total", "SYN SYN preambles detected.", chLabel, demod::getSyncs);
+                metrics.counter("jacarsdec_crc_passed_total", "Messages that passed the CRC check.", chLabel, demod::getCrcPassed);
+                metrics.counter("jacarsdec_crc_failed_total", "Messages that failed the CRC check.", chLabel, demod::getCrcFailed);
+                metrics.counter("jacarsdec_corrected_bits_total", "Bits fixed by error correction.", chLabel, demod::getCorrected);
+            }
+            LinkedHashMap<String, MessageChannel<?>> buffers = new LinkedHashMap<String, MessageChannel<?>>();
+            for (int i=0; i<select.length; i++)
+                buffers.put("input " + select[i], inChans.get(i));
+            buffers.put("output", outChan);
+            for (Map.Entry<String, Channel<DemodMessage>> entry : sinkChans.entrySet())
+                buffers.put("sink " + entry.getKey(), entry.getValue());
+            for (Map.Entry<String, MessageChannel<?>> entry : buffers.entrySet()) {
+                String bufLabel = Metrics.labels("buffer", entry.getKey());
+                MessageChannel<?> chan = entry.getValue();
+                metrics.counter("jacarsdec_buffer_written_total", "Items written to a buffer.", bufLabel, chan::getWritten);
+                metrics.counter("jacarsdec_buffer_lost_total", "Items lost from a full buffer.", bufLabel, chan::getLost);
+                metrics.gauge("jacarsdec_buffer_high_water", "Most items a buffer has held.", bufLabel, chan::getHighWater);
+            }
+            if (dedup != null)
+                metrics.counter("jacarsdec_duplicates_total", "Duplicate messages suppressed.", null, dedup::getDuplicates);
+            if (reassembler != null) {
+                metrics.counter("jacarsdec_joined_total", "Multi-block messages joined.", null, reassembler::getJoined);
+                metrics.counter("jacarsdec_orphaned_blocks_total", "Blocks passed on unjoined.", null, reassembler::getOrphans);
+            }
+            for (Thread writer : writers) {
+                if (writer instanceof HttpOutputThread) {
+                    HttpOutputThread http = (HttpOutputThread) writer;
+                    metrics.counter("jacarsdec_post_messages_total", "Messages sent by POST.", null, http::getMessages);
+                    String[] classes = { "none", "1xx", "2xx", "3xx", "4xx", "5xx" };
+                    for (int i=0; i<classes.length; i++) {
+                        int statusClass = i;
+                        metrics.counter("jacarsdec_post_responses_total", "POSTs done, by response status.",
+                                Metrics.labels("status", classes[i]), () -> http.getResponses(statusClass));
+                    }
+                    metrics.summary("jacarsdec_post_seconds", "Time spent doing POSTs.", null,
+                            http::getPostSeconds, http::getPosts);
+                } else if (writer instanceof BinaryOutputThread) {
+                    BinaryOutputThread binary = (BinaryOutputThread) writer;
+                    metrics.counter("jacarsdec_binary_lost_total", "Messages lost for want of a binary output destination.",
+                            null, binary::getLost);
+                } else if (writer instanceof ApiOutputThread) {
+                    ApiServer server = ((ApiOutputThread) writer).getServer();
+                    metrics.gauge("jacarsdec_api_subscribers", "Event stream subscribers connected.", null, server::getSubscribers);
+                    metrics.counter("jacarsdec_api_dropped_total", "Event stream subscribers disconnected for being slow.", null, server::getDropped);
+                }
+            }
             try {
-                writer = new HttpOutputThread(outChan, props);
-            } catch (IllegalArgumentException|MalformedURLException e) {
-                System.err.format("%s: %s%n", MYNAME, getMessage(e));
+                metrics.serve(ApiServer.parseAddress(cmdLine.getOptionValue("metrics")));
+            } catch (IllegalArgumentException|IOException e) {
+                System.err.format("%s: unable to serve metrics - %s%n", MYNAME, getMessage(e));
                 System.exit(1);
             }
         }
 
-        // Log some standard start messages, unless in quiet mode
-        if (!cmdLine.hasOption("quiet")) {
+        // Log some standard start messages, unless in quiet mode (or the
+        // binary output is going to standard output)
+        if (!cmdLine.hasOption("quiet") && !"-".equals(binaryDest)) {
             System.out.format("This is %s at %tFT%<tTJ.%n", MYNAME, System.currentTimeMillis());
-            System.out.format("Reading from %d-channel input line %d of mixer %d (%s).%n",
-                    channels, lineId, mixerId, mi.getName());
+            System.out.format("Reading from %s.%n", inputName);
             System.out.format("Input buffer size %d, output buffer size %d.%n",
                     inputSize, outputSize);
-            System.out.format("%d threads total.%n%n", Thread.activeCount() + demods.length + 2);
+            System.out.format("Demodulating at %.0f Hz.%n", rate / decimate);
+            if (ringWait != null)
+                System.out.format("Using lock-free input buffers (%s wait).%n",
+                        ringWait.toString().toLowerCase());
+            if (outWait != null)
+                System.out.format("Using lock-free output buffer (%s wait).%n",
+                        outWait.toString().toLowerCase());
+            if (dispatcher != null)
+                System.out.format("Writing to %s.%n", String.join(", ", sinks));
+            System.out.format("%d threads total.%n%n", Thread.activeCount() + demods.length +
+                    writers.size() + (dispatcher == null ? 1 : 2));
         }
 
         // And away we go! We start things from the back first, so everything
         // will be ready when the reader is started.
-        writer.start();
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        if (dispatcher != null)
+            dispatcher.start();
         for (DemodThread demod : demods) {
             demod.start();
         }
         reader.start();
 
         // Termination is by a keyboard interrupt, which we simply wait for,
-        // indefinitely.
-        while (true)
+        // indefinitely, printing statistics meanwhile if so requested. If
+        // the input ends (a file, stream, or test signal, or a line that
+        // gets closed), it's instead when everything read has made it all
+        // the way through.
+        long started = System.nanoTime();
+        long sleepTime = statsInterval > 0 ? statsInterval * 1000L : 84600 * 1000L;
+        boolean done = false;
+        while (!done) {
             try {
-                Thread.sleep(84600 * 1000);
+                reader.join(sleepTime);
+                done = !reader.isAlive();
+                if (done) {
+                    for (DemodThread demod : demods)
+                        demod.join();
+                    outChan.write(null);
+                    if (dispatcher != null)
+                        dispatcher.join();
+                    for (Thread writer : writers)
+                        writer.join();
+                }
             } catch (InterruptedException e) {
                 break;
             }
+            if (statsInterval > 0) {
+                for (int i=0; i<select.length; i++)
+                    printStats("input " + select[i], inChans.get(i));
+                printStats("output", outChan);
+                for (Map.Entry<String, Channel<DemodMessage>> entry : sinkChans.entrySet())
+                    printStats("sink " + entry.getKey(), entry.getValue());
+                if (dedup != null)
+                    System.err.format("%s: %d duplicates suppressed%n", MYNAME, dedup.getDuplicates());
+                if (reassembler != null)
+                    System.err.format("%s: %d messages joined, %d blocks orphaned%n", MYNAME,
+                            reassembler.getJoined(), reassembler.getOrphans());
+                for (MpscChannel<DemodMessage>.Producer producer : producers)
+                    System.err.format("%s: output from %d: %d written, %d lost%n", MYNAME,
+                            producer.getId(), producer.getWritten(), producer.getLost());
+            }
+        }
+        if (done) {
+            double seconds = (System.nanoTime() - started) / 1.0e9;
+            double audio = reader.getSamples() / (double) rate;
+            System.err.format("%s: decoded %.1f s of audio in %.1f s, %.1f times real time%n",
+                    MYNAME, audio, seconds, audio / seconds);
+            System.exit(0);
+        }
+    }
+
+    private static Thread makeWriter(String sink, MessageChannel<DemodMessage> chan) {
+        try {
+            switch (sink) {
+            case "post":
+                Properties props = new Properties();
+                try (BufferedReader rdr = new BufferedReader(new FileReader(cmdLine.getOptionValue("post")))) {
+                    props.load(rdr);
+                } catch (IOException e) {
+                    System.err.format("%s: unable to load properties - %s%n", MYNAME, getMessage(e));
+                    System.exit(1);
+                }
+                if (props.getProperty("inflight") == null)
+                    return new HttpOutputThread(chan, props);
+                else
+                    return new AsyncHttpOutputThread(chan, props);
+            case "json":
+                long jsonSize = toInt("json-size", 64) * 1024L * 1024L;
+                long jsonSync = toInt("json-sync", 1000);
+                return new JsonFileOutputThread(chan, new File(cmdLine.getOptionValue("json")), jsonSize, jsonSync);
+            case "binary":
+                return new BinaryOutputThread(chan, cmdLine.getOptionValue("binary"));
+            case "archive":
+                long archiveSize = toInt("archive-size", 64) * 1024L * 1024L;
+                long archiveDays = toInt("archive-days", 28) * 24L * 60L * 60L * 1000L;
+                long archiveSync = toInt("archive-sync", 1000);
+                Archive archive = new Archive(new File(cmdLine.getOptionValue("archive")), archiveSize, archiveDays);
+                return new ArchiveOutputThread(chan, archive, archiveSync);
+            case "api":
+                MessageRing ring = new MessageRing(toInt("api-size", 1000));
+                ApiServer server = new ApiServer(ApiServer.parseAddress(cmdLine.getOptionValue("api")), ring,
+                        toInt("api-subscribers", 16), toInt("api-queue", 256));
+                server.start();
+                return new ApiOutputThread(chan, server, ring);
+            default:
+                return new StandardOutputThread(chan);
+            }
+        } catch (IllegalArgumentException|IOException e) {
+            System.err.format("%s: %s%n", MYNAME, getMessage(e));
+            System.exit(1);
+        }
+        return null;  /* here just to make Java happy */
+    }
+
+    private static <T> Channel<T> makeChannel(int size, Channel.Policy policy, int defTimeout, Codec<T> codec) {
+        long timeout = toInt("block-timeout", defTimeout);
+        SpillFile<T> spill = null;
+        if (policy == Channel.Policy.SPILL) {
+            String dir = cmdLine.getOptionValue("spill-dir", System.getProperty("java.io.tmpdir"));
+            long max = toInt("spill-max", 1024) * 1024L * 1024L;
+            try {
+                spill = new SpillFile<T>(new File(dir), codec, max);
+            } catch (IOException e) {
+                System.err.format("%s: unable to create spill file - %s%n", MYNAME, getMessage(e));
+                System.exit(1);
+            }
+        }
+        return new Channel<T>(size, policy, timeout, spill);
+    }
+
+    private static void printStats(String name, MessageChannel<?> chan) {
+        System.err.format("%s: %s: %d written, %d lost, high water %d%n", MYNAME,
+                name, chan.getWritten(), chan.getLost(), chan.getHighWater());
     }
 
     private static int toInt(String name, String raw) {
@@ -347,6 +596,21 @@ public class Main {
         return -1;  /* here just to make Java happy */
     }
 
+    private static <E extends Enum<E>> E toEnum(String name, Class<E> type, E def) {
+        String val = cmdLine.getOptionValue(name);
+        if (val == null) {
+            return def;
+        } else {
+            try {
+                return Enum.valueOf(type, val.trim().toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                System.err.format("%s: invalid value for --%s - %s%n", MYNAME, name, val);
+                System.exit(1);
+            }
+        }
+        return null;  /* here just to make Java happy */
+    }
+
     public static String getMessage(Throwable e) {
         String ret = e.getMessage();
         if (ret == null)
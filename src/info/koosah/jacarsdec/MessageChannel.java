@@ -0,0 +1,81 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * The operations common to all the buffered communications channels the
+ * threads in this program use to talk to one another. By default, writes
+ * never block; if the buffer is full, the oldest item therein is
+ * overwritten. Null items may be written, and conventionally tell the
+ * reader to exit; they are never lost, no matter how full the channel
+ * is, so that the reader always finds out. All channels keep statistics that may be read at any
+ * time, from any thread.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public interface MessageChannel<T> {
+    /**
+     * Write a single item to this channel.
+     * @param item      Item to write.
+     * @return          Whether or not overwriting happened.
+     */
+    public boolean write(T item);
+
+    /**
+     * Read a single item from this channel, blocking if needed.
+     * @return          The item read.
+     */
+    public T read() throws InterruptedException;
+
+    /**
+     * Read all available items, up to a maximum, from this channel in one
+     * operation, blocking until at least one is available.
+     * @param dest      Collection to add the items read to.
+     * @param max       Maximum number of items to read.
+     * @return          Number of items read.
+     */
+    public int drainTo(Collection<? super T> dest, int max) throws InterruptedException;
+
+    /**
+     * Like drainTo(dest, max), but give up if nothing arrives in time.
+     * @param dest      Collection to add the items read to.
+     * @param max       Maximum number of items to read.
+     * @param timeout   How long to wait for the first item (ms).
+     * @return          Number of items read (zero on timeout).
+     */
+    public int drainTo(Collection<? super T> dest, int max, long timeout) throws InterruptedException;
+
+    /**
+     * Arrange for something to be done with each item this channel loses
+     * for being full, e.g. returning it to the pool it came from.
+     * @param handler   Called with each item lost (never with null).
+     */
+    public void setDropHandler(Consumer<? super T> handler);
+
+    /**
+     * Get the number of items that have been written to this channel.
+     * @return          Number written.
+     */
+    public long getWritten();
+
+    /**
+     * Get the number of items that have been lost because this channel
+     * was full.
+     * @return          Number lost.
+     */
+    public long getLost();
+
+    /**
+     * Get the most items that have ever been in this channel at once.
+     * @return          High-water mark.
+     */
+    public int getHighWater();
+}
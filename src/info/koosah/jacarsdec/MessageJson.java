@@ -0,0 +1,78 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import javax.json.Json;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * Turns demodulated messages into JSON objects, with the header fields
+ * broken out if the message parses. Not thread-safe; each thread that
+ * needs one should have its own.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class MessageJson {
+    private SimpleDateFormat jsonTime;
+    private JsonBuilderFactory json;
+
+    public MessageJson() {
+        jsonTime = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        jsonTime.setTimeZone(TimeZone.getTimeZone("GMT"));
+        /* Json.createObjectBuilder looks up the provider every call */
+        json = Json.createBuilderFactory(null);
+    }
+
+    /**
+     * Start building a JSON object for a message, so that other fields
+     * may be added.
+     * @param m         Message.
+     * @return          Builder, or null if the message isn't ASCII.
+     */
+    public JsonObjectBuilder builder(DemodMessage m) {
+        String raw = m.getRawAsString();
+        if (raw == null)
+            return null;
+
+        JsonObjectBuilder builder = json.createObjectBuilder()
+                .add("time", jsonTime.format(m.getTime()))
+                .add("channel", m.getChannel())
+                .add("message", raw)
+                .add("errors", m.getErrors());
+        if (m.parse()) {
+            builder.add("mode", String.valueOf(m.getMode()))
+                .add("registration", m.getRegistration())
+                .add("acknowledge", String.valueOf(m.getAcknowledge()))
+                .add("label", m.getLabel())
+                .add("blockId", String.valueOf(m.getBlockId()));
+            addIfPresent(builder, "messageId", m.getMessageId());
+            addIfPresent(builder, "flightId", m.getFlightId());
+            addIfPresent(builder, "source", m.getSource());
+            builder.add("text", m.getMessage());
+        }
+        return builder;
+    }
+
+    /**
+     * Build a JSON object for a message.
+     * @param m         Message.
+     * @return          JSON text, or null if the message isn't ASCII.
+     */
+    public String toJson(DemodMessage m) {
+        JsonObjectBuilder builder = builder(m);
+        return builder == null ? null : builder.build().toString();
+    }
+
+    private void addIfPresent(JsonObjectBuilder builder, String name, String value) {
+        if (value != null)
+            builder.add(name, value);
+    }
+}
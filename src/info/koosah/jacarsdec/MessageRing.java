@@ -0,0 +1,143 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the most recent messages, for ApiServer to serve. Each message
+ * gets a sequence number, one more than the message before it, so that
+ * clients can ask for only what's new since they last looked. Messages
+ * are kept already rendered as JSON, so serving them is cheap no matter
+ * how many clients poll.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class MessageRing {
+    private Entry[] ring;
+    private long last;
+
+    /**
+     * Construct a new ring.
+     * @param capacity  How many messages to hold.
+     */
+    public MessageRing(int capacity) {
+        ring = new Entry[capacity];
+        last = 0;
+    }
+
+    /**
+     * Add a message, overwriting the oldest one if full.
+     * @param m         Message.
+     * @param json      The message as a JSON object; must include its
+     *                  sequence number, which is getLast() + 1.
+     * @return          The entry added.
+     */
+    public synchronized Entry add(DemodMessage m, String json) {
+        last++;
+        Entry e = new Entry(last, m, json);
+        ring[(int) (last % ring.length)] = e;
+        return e;
+    }
+
+    /**
+     * Get the sequence number of the newest message.
+     * @return          Sequence number, or 0 if no messages yet.
+     */
+    public synchronized long getLast() {
+        return last;
+    }
+
+    /**
+     * Get the sequence number of the oldest message still held.
+     * @return          Sequence number, or 1 if no messages yet.
+     */
+    public synchronized long getOldest() {
+        return Math.max(1L, last - ring.length + 1);
+    }
+
+    /**
+     * Find messages.
+     * @param since     Only find messages newer than this one.
+     * @param upto      Only find messages no newer than this one.
+     * @param filter    Which messages to find.
+     * @param limit     Maximum number of messages to find.
+     * @return          The oldest matching messages, oldest first.
+     */
+    public List<Entry> find(long since, long upto, Filter filter, int limit) {
+        List<Entry> ret = new ArrayList<Entry>();
+        synchronized (this) {
+            for (long seq = Math.max(since + 1, getOldest()); seq <= Math.min(last, upto) && ret.size() < limit; seq++) {
+                Entry e = ring[(int) (seq % ring.length)];
+                if (filter.matches(e))
+                    ret.add(e);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Selects messages by their header fields.
+     */
+    public static class Filter {
+        private String registration, flightId, label;
+        private int channel;
+
+        /**
+         * Criteria that are null (or negative, for channel) are not used.
+         * @param registration  Aircraft registration.
+         * @param flightId  Flight ID.
+         * @param label     Message label.
+         * @param channel   Channel received on.
+         */
+        public Filter(String registration, String flightId, String label, int channel) {
+            this.registration = TermIndex.normalize(registration);
+            this.flightId = TermIndex.normalize(flightId);
+            this.label = TermIndex.normalize(label);
+            this.channel = channel;
+        }
+
+        public boolean matches(Entry e) {
+            return (registration == null || registration.equals(e.registration)) &&
+                (flightId == null || flightId.equals(e.flightId)) &&
+                (label == null || label.equals(e.label)) &&
+                (channel < 0 || channel == e.channel);
+        }
+    }
+
+    /**
+     * A message in the ring.
+     */
+    public static class Entry {
+        public final long seq;
+        public final int channel;
+        public final String registration, flightId, label;
+        public final String json;
+
+        public Entry(long seq, DemodMessage m, String json) {
+            this.seq = seq;
+            this.json = json;
+            channel = m.getChannel();
+            if (m.parse()) {
+                registration = TermIndex.normalize(m.getRegistration());
+                flightId = TermIndex.normalize(m.getFlightId());
+                label = TermIndex.normalize(m.getLabel());
+            } else {
+                registration = flightId = label = null;
+            }
+        }
+
+        /* for making markers that aren't messages */
+        Entry() {
+            seq = 0;
+            channel = -1;
+            registration = flightId = label = json = null;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Statistics about the whole pipeline, served over HTTP (at /metrics) in
+ * the text format Prometheus reads. Nothing here is updated as things
+ * happen; instead, each metric is a function that reads a counter the
+ * relevant thread already keeps, and these get called only when someone
+ * asks. So keeping metrics costs the threads doing the real work nothing
+ * beyond maintaining their counters.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class Metrics {
+    private LinkedHashMap<String, Family> families;
+    private HttpServer server;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public Metrics() {
+        families = new LinkedHashMap<String, Family>();
+        server = null;
+    }
+
+    /**
+     * Add a counter, i.e. a value that only ever goes up.
+     * @param name      Metric name; should end in _total.
+     * @param help      Description.
+     * @param labels    Labels, as made by labels(), or null.
+     * @param value     Gets the current value.
+     */
+    public void counter(String name, String help, String labels, LongSupplier value) {
+        add(name, help, "counter", name, labels, () -> (double) value.getAsLong());
+    }
+
+    /**
+     * Add a gauge, i.e. a value that may go up or down.
+     * @param name      Metric name.
+     * @param help      Description.
+     * @param labels    Labels, as made by labels(), or null.
+     * @param value     Gets the current value.
+     */
+    public void gauge(String name, String help, String labels, LongSupplier value) {
+        add(name, help, "gauge", name, labels, () -> (double) value.getAsLong());
+    }
+
+    /**
+     * Add a summary, i.e. a count of events and their total size, from
+     * which an average may be had.
+     * @param name      Metric name.
+     * @param help      Description.
+     * @param labels    Labels, as made by labels(), or null.
+     * @param sum       Gets the total size.
+     * @param count     Gets the count.
+     */
+    public void summary(String name, String help, String labels, DoubleSupplier sum, LongSupplier count) {
+        add(name, help, "summary", name + "_sum", labels, sum);
+        add(name, help, "summary", name + "_count", labels, () -> (double) count.getAsLong());
+    }
+
+    private synchronized void add(String name, String help, String type, String sample,
+            String labels, DoubleSupplier value) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = new Family(help, type);
+            families.put(name, family);
+        }
+        family.samples.add(new Sample(labels == null ? sample : sample + "{" + labels + "}", value));
+    }
+
+    /**
+     * Make a label set.
+     * @param nameValues  Alternating label names and values.
+     * @return          Label set.
+     */
+    public static String labels(Object... nameValues) {
+        StringBuilder ret = new StringBuilder();
+        for (int i=0; i+1<nameValues.length; i+=2) {
+            if (i > 0)
+                ret.append(',');
+            ret.append(nameValues[i]).append("=\"");
+            for (char c: String.valueOf(nameValues[i+1]).toCharArray()) {
+                if (c == '\\' || c == '"')
+                    ret.append('\\').append(c);
+                else if (c == '\n')
+                    ret.append("\\n");
+                else
+                    ret.append(c);
+            }
+            ret.append('"');
+        }
+        return ret.toString();
+    }
+
+    /**
+     * Get all the metrics, in Prometheus text format.
+     * @return          Metrics.
+     */
+    public synchronized String render() {
+        StringBuilder out = new StringBuilder();
+        for (String name: families.keySet()) {
+            Family family = families.get(name);
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Sample sample: family.samples) {
+                double value = sample.value.getAsDouble();
+                out.append(sample.name).append(' ');
+                if (value == Math.rint(value) && Math.abs(value) < 1.0e15)
+                    out.append((long) value);
+                else
+                    out.append(value);
+                out.append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Start serving metrics over HTTP.
+     * @param addr      Address to listen on.
+     */
+    public void serve(InetSocketAddress addr) throws IOException {
+        server = HttpServer.create(addr, 0);
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "Metrics");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.createContext("/metrics", this::metrics);
+        server.start();
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        byte[] body = render().getBytes(UTF8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        exchange.close();
+    }
+
+    private static class Family {
+        public String help, type;
+        public List<Sample> samples;
+
+        public Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+            samples = new ArrayList<Sample>();
+        }
+    }
+
+    private static class Sample {
+        public String name;
+        public DoubleSupplier value;
+
+        public Sample(String name, DoubleSupplier value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A lock-free channel for many writer threads and one reader thread,
+ * which is how all the demod threads feed the output thread. This is a
+ * bounded array queue in which each slot carries a sequence number
+ * saying whose turn it is to use the slot (D. Vyukov's algorithm). Like
+ * Channel, writing never blocks and overwrites the oldest item if the
+ * buffer is full; a full writer does that by dequeueing and discarding
+ * the oldest item itself.
+ *
+ * Writers should write via the Producer objects obtained from producer(),
+ * so that each loss gets blamed on the writer whose write caused it.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class MpscChannel<T> extends LockFreeChannel<T> {
+    private AtomicReferenceArray<Object> buffer;
+    private AtomicLongArray sequence;
+    private int mask;
+    private AtomicLong head, tail;
+    private LongAdder written, lost;
+    private AtomicInteger highWater;
+
+    /**
+     * Construct a new channel.
+     * @param capacity  Buffer size (rounded up to a power of two).
+     * @param wait      How the reader waits for data.
+     */
+    public MpscChannel(int capacity, WaitStrategy wait) {
+        super(wait);
+        if (capacity < 1)
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        buffer = new AtomicReferenceArray<Object>(size);
+        sequence = new AtomicLongArray(size);
+        for (int i=0; i<size; i++)
+            sequence.set(i, i);
+        mask = size - 1;
+        head = new AtomicLong(0);
+        tail = new AtomicLong(0);
+        written = new LongAdder();
+        lost = new LongAdder();
+        highWater = new AtomicInteger(0);
+    }
+
+    /**
+     * Write a single item to this channel. Losses caused by writing this
+     * way are not attributed to any particular producer.
+     * @param item      Item to write.
+     * @return          Whether or not overwriting happened.
+     */
+    public boolean write(T item) {
+        return dropsToWrite(item) > 0;
+    }
+
+    /* write, returning the number of items lost in the process */
+    private int dropsToWrite(T item) {
+        int ret = 0;
+        written.increment();
+        while (!offer(item)) {
+            Object old = take();
+            if (old != NONE) {
+                dropped(old);
+                ret++;
+            }
+        }
+        if (ret > 0)
+            lost.add(ret);
+        int occupancy = (int) (tail.get() - head.get());
+        if (occupancy > highWater.get())
+            highWater.accumulateAndGet(occupancy, Math::max);
+        wake();
+        return ret;
+    }
+
+    protected boolean isEmpty() {
+        long pos = head.get();
+        return sequence.get((int) pos & mask) - (pos + 1) < 0;
+    }
+
+    private boolean offer(T item) {
+        long pos = tail.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long dif = sequence.get(i) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer.set(i, item);
+                    sequence.set(i, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (dif < 0) {
+                /*
+                 * Full, unless a reader has claimed the oldest item (by
+                 * advancing head) but not yet freed its slot; then
+                 * there's room, or soon will be, so try again.
+                 */
+                if (tail.get() - head.get() >= mask + 1)
+                    return false;
+                pos = tail.get();
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    protected Object take() {
+        long pos = head.get();
+        while (true) {
+            int i = (int) pos & mask;
+            long dif = sequence.get(i) - (pos + 1);
+            if (dif == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Object ret = buffer.get(i);
+                    buffer.set(i, null);  /* unref the item */
+                    sequence.set(i, pos + mask + 1);
+                    return ret;
+                }
+                pos = head.get();
+            } else if (dif < 0) {
+                return NONE;  /* empty */
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getLost() {
+        return lost.sum();
+    }
+
+    public int getHighWater() {
+        return highWater.get();
+    }
+
+    /**
+     * Obtain a handle for a single writer to write to this channel with.
+     * @param id        Identifies the writer (e.g. by channel number).
+     * @return          Producer handle.
+     */
+    public Producer producer(int id) {
+        return new Producer(id);
+    }
+
+    /**
+     * A handle through which a single writer writes, which keeps track
+     * of the losses that writer caused. Reads go to the underlying channel.
+     */
+    public class Producer implements MessageChannel<T> {
+        private int id;
+        private AtomicLong written, lost;
+
+        private Producer(int id) {
+            this.id = id;
+            written = new AtomicLong(0);
+            lost = new AtomicLong(0);
+        }
+
+        public boolean write(T item) {
+            written.lazySet(written.get() + 1);
+            int dropped = dropsToWrite(item);
+            if (dropped > 0)
+                lost.lazySet(lost.get() + dropped);
+            return dropped > 0;
+        }
+
+        public T read() throws InterruptedException {
+            return MpscChannel.this.read();
+        }
+
+        public void setDropHandler(Consumer<? super T> handler) {
+            MpscChannel.this.setDropHandler(handler);
+        }
+
+        public int drainTo(Collection<? super T> dest, int max) throws InterruptedException {
+            return MpscChannel.this.drainTo(dest, max);
+        }
+
+        public int drainTo(Collection<? super T> dest, int max, long timeout) throws InterruptedException {
+            return MpscChannel.this.drainTo(dest, max, timeout);
+        }
+
+        /**
+         * Get the ID this producer was created with.
+         * @return      ID.
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Get the number of items written by this producer.
+         * @return      Number written.
+         */
+        public long getWritten() {
+            return written.get();
+        }
+
+        /**
+         * Get the number of items lost because of writes by this producer.
+         * @return      Number lost.
+         */
+        public long getLost() {
+            return lost.get();
+        }
+
+        /**
+         * Get the high-water mark of the underlying channel.
+         * @return      High-water mark.
+         */
+        public int getHighWater() {
+            return MpscChannel.this.getHighWater();
+        }
+    }
+}
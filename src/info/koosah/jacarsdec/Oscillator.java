@@ -0,0 +1,126 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+/**
+ * The local oscillator that feeds the MSK demodulator's mixer. Given the
+ * phase the demodulator's PLL has accumulated, this supplies cos(-phi) and
+ * sin(-phi). Calling Math.cos and Math.sin for every sample is exact but
+ * expensive, so there are cheaper approximations to choose from, too.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class Oscillator {
+    /**
+     * How the oscillator output gets calculated.
+     */
+    public enum Mode {
+        /** Call Math.cos and Math.sin for each sample. */
+        EXACT,
+        /** Look up the nearest entry in a precomputed sine table. */
+        TABLE,
+        /** Rotate a phasor by the phase step, resyncing periodically. */
+        PHASOR
+    };
+
+    /*
+     * The sine table. It has an extra quarter-cycle on the end so that
+     * cosines can be looked up in the same table, by offsetting the
+     * index a quarter-cycle. 4096 entries puts the worst-case phase error
+     * at pi/4096, which is about 62 dB down; that's way below the noise
+     * floor of any audio we're going to get.
+     */
+    private static final int TABLE_BITS = 12;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+    private static final int QUARTER = TABLE_SIZE / 4;
+    private static final double INDEX_SCALE = TABLE_SIZE / (2.0 * Math.PI);
+    private static final double[] SINE = new double[TABLE_SIZE + QUARTER];
+    static {
+        for (int i=0; i<SINE.length; i++)
+            SINE[i] = Math.sin(2.0 * Math.PI * i / TABLE_SIZE);
+    }
+
+    /*
+     * Rounding error accumulates slowly in the phasor, so every this many
+     * samples we throw it away and compute things exactly.
+     */
+    private static final int RESYNC = 1024;
+
+    private Mode mode;
+    private double cos, sin;
+    private double step, stepCos, stepSin;
+    private int count;
+
+    /**
+     * Construct a new oscillator.
+     * @param mode      How to calculate the output.
+     */
+    public Oscillator(Mode mode) {
+        this.mode = mode;
+        cos = 1.0;
+        sin = 0.0;
+        step = stepCos = stepSin = 0.0;
+        count = 0;
+    }
+
+    /**
+     * Advance the oscillator.
+     * @param phi       The new phase, in radians, in [0, 2*pi).
+     * @param step      How much phi advanced by since the last call.
+     */
+    public void advance(double phi, double step) {
+        switch (mode) {
+        case EXACT:
+            cos = Math.cos(-phi);
+            sin = Math.sin(-phi);
+            break;
+
+        case TABLE:
+            int i = ((int) (phi * INDEX_SCALE + 0.5)) & TABLE_MASK;
+            cos = SINE[i + QUARTER];
+            sin = -SINE[i];
+            break;
+
+        case PHASOR:
+            if (count <= 0) {
+                cos = Math.cos(-phi);
+                sin = Math.sin(-phi);
+                count = RESYNC;
+                break;
+            }
+            /* the step only changes when the PLL does, i.e. once a bit */
+            if (step != this.step) {
+                this.step = step;
+                stepCos = Math.cos(step);
+                stepSin = Math.sin(step);
+            }
+            double c = cos * stepCos + sin * stepSin;
+            sin = sin * stepCos - cos * stepSin;
+            cos = c;
+            count--;
+            break;
+        }
+    }
+
+    /**
+     * Get the cosine of minus the current phase.
+     * @return          Cosine.
+     */
+    public double cos() {
+        return cos;
+    }
+
+    /**
+     * Get the sine of minus the current phase.
+     * @return          Sine.
+     */
+    public double sin() {
+        return sin;
+    }
+}
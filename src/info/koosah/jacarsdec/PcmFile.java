@@ -0,0 +1,166 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Describes a file of recorded audio: where in it the 16-bit PCM samples
+ * are, and their rate and number of channels. WAV files describe
+ * themselves; anything else is taken to be raw little-endian samples,
+ * whose rate and number of channels must be supplied.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class PcmFile {
+    private File file;
+    private long offset, length;
+    private float rate;
+    private int channels;
+
+    /* WAVE_FORMAT_PCM and WAVE_FORMAT_EXTENSIBLE */
+    private static final int WAVE_PCM = 1;
+    private static final int WAVE_EXTENSIBLE = 0xfffe;
+
+    private static final int SAMPLE_SIZE = 2;
+
+    private PcmFile(File file, long offset, long length, float rate, int channels) {
+        this.file = file;
+        this.offset = offset;
+        this.rate = rate;
+        this.channels = channels;
+        /* ignore any partial frame at the end */
+        this.length = length - length % getFrameSize();
+    }
+
+    /**
+     * Open a file of recorded audio.
+     * @param file      File to open.
+     * @param rate      Sample rate, if a raw file (Hz).
+     * @param channels  Number of channels, if a raw file.
+     * @return          Description of the file.
+     */
+    public static PcmFile open(File file, float rate, int channels) throws IOException {
+        try (FileChannel chan = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = chan.size();
+            ByteBuffer head = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(chan, head, 0);
+            if (size < 12 || head.getInt(0) != tag("RIFF") || head.getInt(8) != tag("WAVE")) {
+                if (rate <= 0.0f || channels < 1)
+                    throw new IOException("invalid rate or channels for raw file " + file);
+                return new PcmFile(file, 0, size, rate, channels);
+            }
+            return openWav(file, chan, size);
+        }
+    }
+
+    private static PcmFile openWav(File file, FileChannel chan, long size) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        long pos = 12;
+        float rate = 0.0f;
+        int channels = 0;
+        while (pos + 8 <= size) {
+            chunk.clear().limit(8);
+            readFully(chan, chunk, pos);
+            int id = chunk.getInt(0);
+            long chunkSize = chunk.getInt(4) & 0xffffffffL;
+            pos += 8;
+            if (id == tag("fmt ")) {
+                if (chunkSize < 16)
+                    throw new IOException("invalid WAV format in " + file);
+                chunk.clear();
+                readFully(chan, chunk, pos);
+                int format = chunk.getShort(0) & 0xffff;
+                channels = chunk.getShort(2) & 0xffff;
+                rate = chunk.getInt(4);
+                int bits = chunk.getShort(14) & 0xffff;
+                if ((format != WAVE_PCM && format != WAVE_EXTENSIBLE) || bits != 8 * SAMPLE_SIZE || channels < 1)
+                    throw new IOException("not a 16-bit PCM WAV file - " + file);
+            } else if (id == tag("data")) {
+                if (channels == 0)
+                    throw new IOException("WAV data before format in " + file);
+                /* recorders that get cut off never fill in the size */
+                return new PcmFile(file, pos, Math.min(chunkSize, size - pos), rate, channels);
+            }
+            /* chunks are padded to an even length */
+            pos += chunkSize + (chunkSize & 1);
+        }
+        throw new IOException("no WAV data in " + file);
+    }
+
+    private static void readFully(FileChannel chan, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = chan.read(buf, pos);
+            if (n < 0)
+                break;
+            pos += n;
+        }
+    }
+
+    private static int tag(String name) {
+        return (name.charAt(0) & 0xff) | (name.charAt(1) & 0xff) << 8 |
+            (name.charAt(2) & 0xff) << 16 | (name.charAt(3) & 0xff) << 24;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Get where in the file the samples start.
+     * @return          Byte offset.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get how many bytes of samples there are.
+     * @return          Length, a whole number of frames.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public float getRate() {
+        return rate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getSampleSize() {
+        return SAMPLE_SIZE;
+    }
+
+    public int getFrameSize() {
+        return channels * SAMPLE_SIZE;
+    }
+
+    /**
+     * Get the number of frames (samples per channel) in the file.
+     * @return          Frame count.
+     */
+    public long getFrames() {
+        return length / getFrameSize();
+    }
+
+    /**
+     * Get how long the recording lasts.
+     * @return          Duration (s).
+     */
+    public double getSeconds() {
+        return getFrames() / (double) rate;
+    }
+}
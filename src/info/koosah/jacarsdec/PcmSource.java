@@ -0,0 +1,61 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Common code for sources of interleaved signed 16-bit samples, which is
+ * what sound cards, WAV files, and rtl_fm all provide.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public abstract class PcmSource implements SampleSource {
+    protected int channels;
+    protected float rate;
+    protected int frameSize;
+
+    /* bytes per sample */
+    protected static final int SAMPLE_SIZE = 2;
+
+    protected PcmSource(int channels, float rate) {
+        this.channels = channels;
+        this.rate = rate;
+        frameSize = channels * SAMPLE_SIZE;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public float getRate() {
+        return rate;
+    }
+
+    /**
+     * Split frames into the selected channels.
+     * @param buf       Frames, starting at its position, which gets
+     *                  advanced past them. Its byte order must be set.
+     * @param frames    Number of frames.
+     * @param out       Buffers to fill in, one per selected channel.
+     * @param select    Which channel to put into each buffer.
+     * @param offset    Where in the buffers to start.
+     */
+    protected void deinterleave(ByteBuffer buf, int frames, float[][] out, int[] select, int offset) {
+        int base = buf.position();
+        for (int i=0; i<select.length; i++) {
+            float[] dest = out[i];
+            int pos = base + SAMPLE_SIZE * select[i];
+            for (int fr=0; fr<frames; fr++) {
+                dest[offset + fr] = (float) buf.getShort(pos) / 32768.0f;
+                pos += frameSize;
+            }
+        }
+        buf.position(base + frames * frameSize);
+    }
+}
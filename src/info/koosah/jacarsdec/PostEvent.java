@@ -0,0 +1,39 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for one HTTP POST. Its duration is the time
+ * from starting to send until the response (or failure) arrived.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+@Name("jacarsdec.Post")
+@Label("HTTP POST")
+@Category("Jacarsdec")
+@Description("Sending messages to a server.")
+@StackTrace(false)
+class PostEvent extends Event {
+    @Label("URL")
+    String url;
+
+    @Label("Bytes")
+    @Description("Size of the request body.")
+    int bytes;
+
+    @Label("Status")
+    @Description("HTTP response status, or 0 if the POST failed outright.")
+    int status;
+}
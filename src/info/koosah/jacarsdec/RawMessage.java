@@ -6,42 +6,66 @@
 
 package info.koosah.jacarsdec;
 
-import java.util.Date;
-
 /**
  * This represents a single raw, undemodulated ACARS message as read from
- * the ADC.
+ * the ADC. These get recycled via a RawMessagePool, so that reading audio
+ * does not continuously generate garbage.
  *
  * @author  David Barts <david.w.barts@gmail.com>
  *
  */
 public class RawMessage {
-    private Date time;
+    private long time;
     private float[] message;
     private int channel;
+    private RawMessagePool pool;
 
     /**
      * Construct a new raw message.
-     * @param time          Time the message was received.
+     * @param time          Time the message was received (ms since epoch).
+     * @param channel       Number of the channel this message came in on.
+     * @param message       The message itself.
+     */
+    public RawMessage(long time, int channel, float[] message) {
+        this(time, channel, message, null);
+    }
+
+    /**
+     * Construct a new raw message that belongs to a pool.
+     * @param time          Time the message was received (ms since epoch).
      * @param channel       Number of the channel this message came in on.
      * @param message       The message itself.
+     * @param pool          Pool to return this message to when done.
      */
-    public RawMessage(Date time, int channel, float[] message) {
+    RawMessage(long time, int channel, float[] message, RawMessagePool pool) {
         this.time = time;
         this.channel = channel;
         this.message = message;
+        this.pool = pool;
     }
 
     public float[] getMessage() {
         return message;
     }
 
-    public Date getTime() {
+    public long getTime() {
         return time;
     }
 
+    public void setTime(long time) {
+        this.time = time;
+    }
+
     public int getChannel() {
         return channel;
     }
 
+    /**
+     * Indicate we're done with this message, so that its buffer may be
+     * reused. The message must not be used after this is called.
+     */
+    public void release() {
+        if (pool != null)
+            pool.release(this);
+    }
 }
@@ -0,0 +1,82 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of raw messages for a single audio channel. The reader thread
+ * acquires messages from here and the demod thread releases them back
+ * after it has demodulated them, so that in the steady state no new
+ * buffers get allocated; so do the channels, for any they lose for being
+ * full. If the pool runs dry (which means more buffers are in flight than
+ * it was sized for), a new message is allocated and the shortfall is
+ * counted.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class RawMessagePool {
+    private RawMessage[] free;
+    private int nfree;
+    private int channel;
+    private int samples;
+    private AtomicLong exhausted;
+
+    /**
+     * Construct a new, full pool.
+     * @param capacity  Maximum number of messages to hold.
+     * @param channel   Channel number the messages are for.
+     * @param samples   Number of samples in each message.
+     */
+    public RawMessagePool(int capacity, int channel, int samples) {
+        free = new RawMessage[capacity];
+        this.channel = channel;
+        this.samples = samples;
+        exhausted = new AtomicLong(0);
+        for (nfree=0; nfree<capacity; nfree++)
+            free[nfree] = newMessage();
+    }
+
+    private RawMessage newMessage() {
+        return new RawMessage(0L, channel, new float[samples], this);
+    }
+
+    /**
+     * Get a message to fill in, allocating one if the pool is empty.
+     * @return          A message.
+     */
+    public RawMessage acquire() {
+        synchronized (this) {
+            if (nfree > 0) {
+                RawMessage ret = free[--nfree];
+                free[nfree] = null;
+                return ret;
+            }
+        }
+        exhausted.incrementAndGet();
+        return newMessage();
+    }
+
+    /**
+     * Return a message to the pool. If the pool is already full, the
+     * message is simply dropped.
+     * @param message   Message to return.
+     */
+    synchronized void release(RawMessage message) {
+        if (nfree < free.length)
+            free[nfree++] = message;
+    }
+
+    /**
+     * Get the number of times acquire found the pool empty.
+     * @return          Exhaustion count.
+     */
+    public long getExhausted() {
+        return exhausted.get();
+    }
+}
@@ -6,84 +6,124 @@
 
 package info.koosah.jacarsdec;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.Date;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
-import javax.sound.sampled.*;
-
 /**
- * The sort of thread that reads from the audio device and hands the
+ * The sort of thread that reads from a source of audio and hands the
  * digitized audio to a demod thread.
  *
  * @author davidb
  *
  */
 public class ReaderThread extends Thread {
-    private TargetDataLine line;
-    private int channels;
+    private SampleSource source;
     private int[] select;
-    private List<Channel<RawMessage>> chans;
+    private List<MessageChannel<RawMessage>> chans;
+    private RawMessagePool[] pools;
+    private RawMessage[] msgs;
 
-    /* number of samples we read at once */
-    private static final int SAMPLES = 16384;
+    /* only we write this, so it needs no lock, just to be visible */
+    private volatile long samples;
 
-    public static class ReaderThreadException extends RuntimeException {
-        public ReaderThreadException() { super(); }
-        public ReaderThreadException(String message) { super(message); }
-        public ReaderThreadException(String message, Throwable cause) { super(message, cause); }
-        public ReaderThreadException(Throwable cause) { super(cause); }
-    }
+    /* number of samples we read at once */
+    protected static final int SAMPLES = 16384;
 
     /**
      *
-     * @param line          Line to read from
-     * @param channels      Number of channels the line has
+     * @param source        Source to read from
      * @param select        List of channels to select
      * @param chans         List of IPC channels to write
+     * @param poolSize      Number of buffers to keep per channel
      */
-    public ReaderThread(TargetDataLine line, int channels, int[] select, List<Channel<RawMessage>> chans) {
+    public ReaderThread(SampleSource source, int[] select, List<MessageChannel<RawMessage>> chans, int poolSize) {
         if (select.length != chans.size())
             throw new IllegalArgumentException("select and chan arrays must be same length");
-        this.line = line;
-        this.channels = channels;
+        for (int ch : select) {
+            if (ch < 0 || ch >= source.getChannels())
+                throw new IllegalArgumentException("no channel " + ch + " in input");
+        }
+        this.source = source;
         this.select = select;
         this.chans = chans;
+        pools = new RawMessagePool[select.length];
+        for (int i=0; i<select.length; i++)
+            pools[i] = new RawMessagePool(poolSize, select[i], SAMPLES);
+        /* buffers lost to a full channel must still go back to their pool */
+        for (MessageChannel<RawMessage> chan : chans)
+            chan.setDropHandler(RawMessage::release);
+        msgs = new RawMessage[select.length];
+        samples = 0;
+    }
+
+    /**
+     * Get the buffer pool for the i-th selected channel.
+     * @param i             Index into the select array.
+     * @return              Pool.
+     */
+    public RawMessagePool getPool(int i) {
+        return pools[i];
+    }
+
+    /**
+     * Get the number of samples read so far, from each selected channel.
+     * @return              Sample count.
+     */
+    public long getSamples() {
+        return samples;
     }
 
     public void run() {
-        AudioFormat format = line.getFormat();
-        int frameSize = format.getFrameSize();
-        int sampleSize = format.getSampleSizeInBits() / 8;
-        byte[] buf = new byte[frameSize * SAMPLES];
-        ByteBuffer bbuf = ByteBuffer.wrap(buf).order(ByteOrder.nativeOrder());
+        float[][] bufs = new float[select.length][];
+        try {
+            while (true) {
+                // get recycled buffers to read into
+                for (int ch=0; ch<select.length; ch++) {
+                    long before = pools[ch].getExhausted();
+                    msgs[ch] = pools[ch].acquire();
+                    bufs[ch] = msgs[ch].getMessage();
+                    if (pools[ch].getExhausted() != before)
+                        System.err.format("%s: raw buffer pool exhausted on channel %d (%d times)%n",
+                                Main.MYNAME, select[ch], pools[ch].getExhausted());
+                }
 
-        line.start();
-        while (true) {
-            // read
-            int nbytes = line.read(buf,  0,  buf.length);
-            if (nbytes != buf.length) {
-                throw new ReaderThreadException("Audio device got closed!");
-            }
-            Date timeRead = new Date();
+                // read; a short block gets padded out with silence
+                int frames = source.read(bufs, select);
+                if (frames < 0) {
+                    for (int ch=0; ch<select.length; ch++)
+                        pools[ch].release(msgs[ch]);
+                    break;
+                }
+                samples += frames;
+                long time = source.getTime();
+                for (int ch=0; ch<select.length; ch++) {
+                    msgs[ch].setTime(time);
+                    Arrays.fill(bufs[ch], frames, bufs[ch].length, 0.0f);
+                }
 
-            // extract channels of interest
-            bbuf.rewind();
-            float[][] bufs = new float[select.length][SAMPLES];
-            for (int fr=0; fr<SAMPLES; fr++) {
-                for(int ch=0; ch<select.length; ch++) {
-                    bufs[ch][fr] = (float) bbuf.getShort(fr*frameSize + sampleSize*select[ch]) / 32768.0f;
+                // write
+                int i=0;
+                for (MessageChannel<RawMessage> chan : chans) {
+                    if (chan.write(msgs[i])) {
+                        System.err.format("%s: raw data lost on channel %d%n", Main.MYNAME, select[i]);
+                        ChannelOverflowEvent.emit("input " + select[i]);
+                    }
+                    msgs[i] = null;
+                    i++;
                 }
             }
-
-            // write
-            int i=0;
-            for (Channel<RawMessage> chan : chans) {
-                if (chan.write(new RawMessage(timeRead, select[i], bufs[i])))
-                    System.err.format("%s: raw data lost on channel %d%n", Main.MYNAME, select[i]);
-                i++;
+        } catch (IOException e) {
+            System.err.format("%s: unable to read %s - %s%n", Main.MYNAME, source.getName(), Main.getMessage(e));
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                /* nothing more to read from it anyhow */
             }
+            // tell each demod thread there's no more input
+            for (MessageChannel<RawMessage> chan : chans)
+                chan.write(null);
         }
     }
 }
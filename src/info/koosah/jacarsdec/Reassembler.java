@@ -0,0 +1,203 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Join multi-block messages back together. A long message gets sent as a
+ * series of blocks, each but the last ending in ETB rather than ETX.
+ * Blocks get collected, keyed by registration, label, and (for downlinks)
+ * message sequence number, until the final block arrives, at which point
+ * a single combined message is passed on. If the final block never shows
+ * up, the blocks collected so far are passed on as they are. Memory use
+ * is bounded by limiting how many partial messages are kept. Not
+ * thread-safe.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class Reassembler {
+    private long timeout;
+    private int maxEntries;
+    private LinkedHashMap<String, Partial> partials;
+    private volatile long joined, orphans;
+
+    private static final byte ETX = 0x03;
+    private static final byte ETB = 0x17;
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    /**
+     * Construct a new reassembler.
+     * @param timeout   How long to wait for the next block (ms).
+     * @param maxEntries  Maximum number of partial messages kept.
+     */
+    public Reassembler(long timeout, int maxEntries) {
+        this.timeout = timeout;
+        this.maxEntries = maxEntries;
+        partials = new LinkedHashMap<String, Partial>();
+        joined = orphans = 0;
+    }
+
+    /**
+     * Offer a newly received message.
+     * @param m         Message.
+     * @param now       Current time (ms).
+     * @param ready     Messages ready to be passed on get added here.
+     */
+    public void offer(DemodMessage m, long now, Collection<? super DemodMessage> ready) {
+        byte[] raw = m.getRaw();
+        byte end = raw[raw.length - 1];
+        if ((end != ETX && end != ETB) || !m.parse()) {
+            ready.add(m);
+            return;
+        }
+        String key = key(m);
+        Partial p = partials.remove(key);
+        if (p == null) {
+            if (end == ETX) {
+                /* the usual case: a single-block message */
+                ready.add(m);
+                return;
+            }
+            p = new Partial();
+        }
+        boolean added = p.add(m);
+        if (added && end == ETX) {
+            ready.add(p.join());
+            joined++;
+            return;
+        }
+        /* re-inserting keeps the map in order of last activity */
+        p.last = now;
+        partials.put(key, p);
+        if (!added)
+            return;
+        if (partials.size() > maxEntries) {
+            Iterator<Partial> it = partials.values().iterator();
+            release(it.next(), ready);
+            it.remove();
+        }
+    }
+
+    /**
+     * Pass on the blocks of any partial messages that have timed out.
+     * @param now       Current time (ms).
+     * @param ready     Messages ready to be passed on get added here.
+     */
+    public void poll(long now, Collection<? super DemodMessage> ready) {
+        Iterator<Partial> it = partials.values().iterator();
+        while (it.hasNext()) {
+            Partial p = it.next();
+            if (p.last + timeout > now)
+                break;
+            release(p, ready);
+            it.remove();
+        }
+    }
+
+    /**
+     * Pass on the blocks of all partial messages.
+     * @param ready     Messages ready to be passed on get added here.
+     */
+    public void flush(Collection<? super DemodMessage> ready) {
+        for (Partial p: partials.values())
+            release(p, ready);
+        partials.clear();
+    }
+
+    /**
+     * Get when the next partial message will time out.
+     * @return          Time (ms), or Long.MAX_VALUE if there are none.
+     */
+    public long nextDue() {
+        if (partials.isEmpty())
+            return Long.MAX_VALUE;
+        return partials.values().iterator().next().last + timeout;
+    }
+
+    /**
+     * Get the number of multi-block messages joined so far.
+     * @return          Count of joined messages.
+     */
+    public long getJoined() {
+        return joined;
+    }
+
+    /**
+     * Get the number of blocks passed on unjoined, because the rest of
+     * their message never arrived.
+     * @return          Count of orphaned blocks.
+     */
+    public long getOrphans() {
+        return orphans;
+    }
+
+    private void release(Partial p, Collection<? super DemodMessage> ready) {
+        ready.addAll(p.blocks);
+        orphans += p.blocks.size();
+    }
+
+    /*
+     * Downlinks carry a message sequence number, the first three characters
+     * of the message ID (the fourth is the block letter). Uplinks don't,
+     * so use the channel to tell them apart as best we can.
+     */
+    private String key(DemodMessage m) {
+        String id = m.getMessageId();
+        String seq = id == null || id.length() < 3 ? "#" + m.getChannel() : id.substring(0, 3);
+        return m.getRegistration() + m.getLabel() + seq;
+    }
+
+    private static class Partial {
+        public List<DemodMessage> blocks;
+        public long last;
+
+        public Partial() {
+            blocks = new ArrayList<DemodMessage>();
+            last = 0;
+        }
+
+        /* add a block, unless it's a retransmission of one we have */
+        public boolean add(DemodMessage m) {
+            String id = m.getMessageId();
+            if (id != null) {
+                for (DemodMessage b: blocks)
+                    if (id.equals(b.getMessageId()))
+                        return false;
+            }
+            blocks.add(m);
+            return true;
+        }
+
+        /*
+         * The first block supplies the header, each block its text, and
+         * the last block its terminator.
+         */
+        public DemodMessage join() {
+            DemodMessage first = blocks.get(0);
+            byte[] raw = first.getRaw();
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(raw.length * blocks.size());
+            buf.write(raw, 0, raw.length - 1);
+            int errors = first.getErrors();
+            for (int i=1; i<blocks.size(); i++) {
+                DemodMessage b = blocks.get(i);
+                byte[] text = b.getMessage().getBytes(CHARSET);
+                buf.write(text, 0, text.length);
+                errors += b.getErrors();
+            }
+            buf.write(ETX);
+            return new DemodMessage(first.getTime(), first.getChannel(), errors, buf.toByteArray());
+        }
+    }
+}
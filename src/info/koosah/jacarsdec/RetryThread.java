@@ -0,0 +1,143 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries failed POSTs for an HttpOutputThread, in a thread of its own so
+ * newly decoded messages never wait behind ones being retried. Each retry
+ * waits twice as long as the one before it (up to a limit), randomized a
+ * bit so retries don't all happen in lockstep. While the circuit breaker
+ * is open, nothing gets sent and no attempts get used up; messages just
+ * wait for it to let requests through again. Messages that run out of
+ * attempts are handed back to the output thread to give up on.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class RetryThread extends Thread {
+    private HttpOutputThread owner;
+    private CircuitBreaker breaker;
+    private DelayQueue<Retry> queue;
+    private int attempts;
+    private long baseDelay, maxDelay;
+    private int maxQueued;
+    private volatile boolean done;
+
+    /**
+     * Construct a new retry thread.
+     * @param owner     Output thread we retry for.
+     * @param breaker   Circuit breaker to consult before each attempt.
+     * @param attempts  Maximum number of retries per message.
+     * @param baseDelay Delay before the first retry (ms).
+     * @param maxDelay  Maximum delay between retries (ms).
+     * @param maxQueued Maximum number of messages awaiting retry.
+     */
+    public RetryThread(HttpOutputThread owner, CircuitBreaker breaker, int attempts,
+            long baseDelay, long maxDelay, int maxQueued) {
+        this.owner = owner;
+        this.breaker = breaker;
+        this.attempts = attempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxQueued = maxQueued;
+        queue = new DelayQueue<Retry>();
+        done = false;
+        setDaemon(true);
+    }
+
+    /**
+     * Schedule a message that just failed for its first retry.
+     * @param jString   JSON to retry sending.
+     */
+    public void schedule(String jString) {
+        if (queue.size() >= maxQueued) {
+            owner.giveUp(jString);
+            return;
+        }
+        queue.put(new Retry(jString, 0));
+    }
+
+    public void run() {
+        while (!done) {
+            Retry retry;
+            try {
+                retry = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            /* if the breaker is open, wait it out without using an attempt */
+            if (!breaker.allow()) {
+                long wait = breaker.getWait();
+                queue.put(new Retry(retry.jString, retry.attempt, wait > 0 ? wait : baseDelay));
+                continue;
+            }
+            if (owner.postNow(retry.jString))
+                continue;
+            if (retry.attempt + 1 >= attempts)
+                owner.giveUp(retry.jString);
+            else
+                queue.put(new Retry(retry.jString, retry.attempt + 1));
+        }
+    }
+
+    /**
+     * Stop retrying, and give up on anything that was awaiting a retry.
+     */
+    public void shutdown() {
+        /* the flag, in case a POST eats the interrupt */
+        done = true;
+        interrupt();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            /* exiting anyhow */
+        }
+        List<Retry> left = new ArrayList<Retry>(queue);
+        queue.clear();
+        for (Retry retry: left)
+            owner.giveUp(retry.jString);
+    }
+
+    /* exponential backoff, with the upper half of each delay randomized */
+    private long delay(int attempt) {
+        long d = baseDelay << Math.min(attempt, 30);
+        if (d <= 0 || d > maxDelay)
+            d = maxDelay;
+        return d / 2 + ThreadLocalRandom.current().nextLong(d / 2 + 1);
+    }
+
+    private class Retry implements Delayed {
+        private String jString;
+        private int attempt;
+        private long due;
+
+        public Retry(String jString, int attempt) {
+            this(jString, attempt, delay(attempt));
+        }
+
+        public Retry(String jString, int attempt, long wait) {
+            this.jString = jString;
+            this.attempt = attempt;
+            due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(wait);
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed other) {
+            return Long.compare(due, ((Retry) other).due);
+        }
+    }
+}
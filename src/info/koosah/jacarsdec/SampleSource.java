@@ -0,0 +1,64 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Somewhere audio comes from: a sound card, a file, a stream, or a
+ * generator. A source delivers blocks of samples already split up by
+ * channel and scaled to the range -1.0 to 1.0, and says when each block
+ * starts, so that ReaderThread need know nothing more about it. Once
+ * reading starts, only the reader thread uses a source.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public interface SampleSource extends Closeable {
+    /**
+     * Get the number of channels.
+     * @return          Channel count.
+     */
+    public int getChannels();
+
+    /**
+     * Get the sample rate.
+     * @return          Rate (Hz).
+     */
+    public float getRate();
+
+    /**
+     * Describe this source, for humans.
+     * @return          Description.
+     */
+    public String getName();
+
+    /**
+     * Whether samples arrive in real time, and so are lost (rather than
+     * just delayed) if not read promptly.
+     * @return          True if live.
+     */
+    public boolean isLive();
+
+    /**
+     * Read the next block of samples. Blocks are contiguous; only the
+     * last may be short.
+     * @param out       One buffer per selected channel, all the same
+     *                  length, to fill in.
+     * @param select    Which channel to put into each buffer.
+     * @return          Number of samples put into each buffer, or -1 if
+     *                  there are no more.
+     */
+    public int read(float[][] out, int[] select) throws IOException;
+
+    /**
+     * Get the time of the first sample of the block most recently read.
+     * @return          Time (ms since epoch).
+     */
+    public long getTime();
+}
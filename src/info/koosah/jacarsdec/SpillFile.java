@@ -0,0 +1,111 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A first-in, first-out queue of items kept in a temporary file, used by
+ * Channel to hold what doesn't fit in memory. Items are appended to the
+ * end of the file and read from the front; when the last item is read,
+ * the file is truncated back to nothing. Not thread-safe; the caller must
+ * synchronize.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class SpillFile<T> {
+    private Codec<T> codec;
+    private long maxBytes;
+    private File file;
+    private RandomAccessFile raf;
+    private long readPos, writePos;
+    private int count;
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream data;
+
+    /**
+     * Construct a new spill file.
+     * @param dir       Directory to create it in.
+     * @param codec     How to serialize items.
+     * @param maxBytes  Maximum file size.
+     */
+    public SpillFile(File dir, Codec<T> codec, long maxBytes) throws IOException {
+        this.codec = codec;
+        this.maxBytes = maxBytes;
+        file = File.createTempFile(Main.MYNAME.toLowerCase(), ".spill", dir);
+        file.deleteOnExit();
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        readPos = writePos = 0;
+        count = 0;
+        bytes = new ByteArrayOutputStream();
+        data = new DataOutputStream(bytes);
+    }
+
+    /**
+     * Append an item to the file.
+     * @param item      Item to append (may be null).
+     * @return          False if there was no room for the item.
+     */
+    public boolean write(T item) throws IOException {
+        bytes.reset();
+        data.writeBoolean(item != null);
+        if (item != null)
+            codec.encode(item, data);
+        data.flush();
+        if (writePos + 4 + bytes.size() > maxBytes)
+            return false;
+        raf.seek(writePos);
+        raf.writeInt(bytes.size());
+        raf.write(bytes.toByteArray());
+        writePos = raf.getFilePointer();
+        count++;
+        return true;
+    }
+
+    /**
+     * Remove and return the oldest item in the file.
+     * @return          The item (may be null, if null was written).
+     */
+    public T read() throws IOException {
+        if (count < 1)
+            throw new IllegalStateException("spill file is empty");
+        raf.seek(readPos);
+        byte[] buf = new byte[raf.readInt()];
+        raf.readFully(buf);
+        readPos = raf.getFilePointer();
+        if (--count == 0) {
+            raf.setLength(0);
+            readPos = writePos = 0;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+        return in.readBoolean() ? codec.decode(in) : null;
+    }
+
+    /**
+     * Get the number of items in the file.
+     * @return          Item count.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Close and delete the file.
+     */
+    public void close() throws IOException {
+        raf.close();
+        file.delete();
+    }
+}
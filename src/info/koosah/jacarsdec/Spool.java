@@ -0,0 +1,200 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A durable first-in, first-out queue of records, kept on disk so that
+ * it survives both long outages and restarts. Records are appended to
+ * memory-mapped segment files of a fixed size; when one fills, a new one
+ * is started, and when the reader is done with one, it gets deleted. How
+ * far the reader has got is kept in a (also memory-mapped) cursor file.
+ * Because everything is mapped, the heap used does not grow with the
+ * amount of data spooled.
+ *
+ * Each record is a length followed by that many bytes. The length is
+ * written last, so a record that was only partly written when we crashed
+ * is never seen; a zero length marks the end of a segment's data.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class Spool {
+    private static final String SUFFIX = ".seg";
+    private static final String CURSOR = "cursor";
+    private static final int CURSOR_SIZE = 12;
+
+    private File dir;
+    private int segSize;
+    private int maxSegments;
+    private MappedByteBuffer cursor;
+    private long readSeg, writeSeg;
+    private int readPos, writePos;
+    private MappedByteBuffer readBuf, writeBuf;
+
+    /**
+     * Open a spool, creating it if it doesn't exist yet.
+     * @param dir       Directory to keep the spool in.
+     * @param segSize   Size of each segment file, in bytes.
+     * @param maxBytes  Maximum total size of all segments, in bytes.
+     */
+    public Spool(File dir, int segSize, long maxBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("unable to create " + dir);
+        this.dir = dir;
+        this.segSize = segSize;
+        maxSegments = (int) Math.max(2L, maxBytes / segSize);
+
+        /* find where the reader left off */
+        cursor = map(new File(dir, CURSOR), CURSOR_SIZE);
+        readSeg = cursor.getLong(0);
+        readPos = cursor.getInt(8);
+
+        /* find the segments, throwing away any already read */
+        long[] segs = segments();
+        if (segs.length > 0 && segs[0] > readSeg) {
+            /* the segment we were reading got removed somehow */
+            readSeg = segs[0];
+            readPos = 0;
+        }
+        for (long seg: segs) {
+            if (seg < readSeg)
+                segFile(seg).delete();
+        }
+        writeSeg = segs.length > 0 ? Math.max(readSeg, segs[segs.length - 1]) : readSeg;
+
+        /* find where the writer left off */
+        writeBuf = map(segFile(writeSeg), segSize);
+        writePos = 0;
+        while (writePos + 4 <= segSize) {
+            int len = writeBuf.getInt(writePos);
+            if (len <= 0)
+                break;
+            writePos += 4 + len;
+        }
+        readBuf = readSeg == writeSeg ? writeBuf : map(segFile(readSeg), segSize);
+        saveCursor();
+    }
+
+    private long[] segments() {
+        String[] names = dir.list();
+        if (names == null)
+            return new long[0];
+        long[] ret = new long[names.length];
+        int n = 0;
+        for (String name: names) {
+            if (!name.endsWith(SUFFIX))
+                continue;
+            try {
+                ret[n] = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                n++;
+            } catch (NumberFormatException e) {
+                /* not one of ours */
+            }
+        }
+        ret = Arrays.copyOf(ret, n);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private File segFile(long seg) {
+        return new File(dir, String.format("%016d%s", seg, SUFFIX));
+    }
+
+    private MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < size)
+                raf.setLength(size);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private void saveCursor() {
+        cursor.putLong(0, readSeg);
+        cursor.putInt(8, readPos);
+    }
+
+    /**
+     * Append a record to the spool.
+     * @param rec       Record to append.
+     * @return          False if the spool is full.
+     */
+    public synchronized boolean append(byte[] rec) throws IOException {
+        if (rec.length == 0 || rec.length + 4 > segSize)
+            throw new IllegalArgumentException("invalid record length: " + rec.length);
+        if (writePos + 4 + rec.length > segSize) {
+            if (writeSeg - readSeg + 1 >= maxSegments)
+                return false;
+            writeBuf.force();
+            writeSeg++;
+            writePos = 0;
+            writeBuf = map(segFile(writeSeg), segSize);
+        }
+        writeBuf.position(writePos + 4);
+        writeBuf.put(rec);
+        writeBuf.putInt(writePos, rec.length);
+        writePos += 4 + rec.length;
+        return true;
+    }
+
+    /**
+     * Return the oldest record, without removing it.
+     * @return          The record, or null if the spool is empty.
+     */
+    public synchronized byte[] peek() throws IOException {
+        while (true) {
+            if (readSeg == writeSeg && readPos >= writePos)
+                return null;
+            int len = readPos + 4 <= segSize ? readBuf.getInt(readPos) : 0;
+            if (len > 0) {
+                byte[] ret = new byte[len];
+                readBuf.position(readPos + 4);
+                readBuf.get(ret);
+                return ret;
+            }
+            /* end of this segment, move on to the next */
+            segFile(readSeg).delete();
+            readSeg++;
+            readPos = 0;
+            readBuf = readSeg == writeSeg ? writeBuf : map(segFile(readSeg), segSize);
+            saveCursor();
+        }
+    }
+
+    /**
+     * Remove the oldest record, which must have been obtained via peek().
+     */
+    public synchronized void remove() {
+        int len = readBuf.getInt(readPos);
+        readPos += 4 + len;
+        saveCursor();
+    }
+
+    /**
+     * Return whether the spool is empty.
+     * @return          Whether empty.
+     */
+    public synchronized boolean isEmpty() {
+        if (readSeg < writeSeg)
+            return false;
+        return readPos >= writePos;
+    }
+
+    /**
+     * Flush everything to disk.
+     */
+    public synchronized void close() {
+        writeBuf.force();
+        cursor.force();
+    }
+}
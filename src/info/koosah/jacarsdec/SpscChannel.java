@@ -0,0 +1,112 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free channel for the case of exactly one writer thread and
+ * exactly one reader thread, which is what connects the reader thread to
+ * each demod thread. Like Channel, writing never blocks and overwrites the
+ * oldest item if the buffer is full. How the reader waits for data to
+ * arrive is selectable.
+ *
+ * Note that slots are not cleared once read, so the most recent items
+ * remain referenced until overwritten. That's harmless for pooled buffers,
+ * which is what this is meant for.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class SpscChannel<T> extends LockFreeChannel<T> {
+    private AtomicReferenceArray<T> buffer;
+    private int capacity;
+
+    /*
+     * Head is the index of the next item to read, tail the index of the
+     * next slot to write; both only ever increase. Only the writer changes
+     * tail, but both the reader (when reading) and the writer (when
+     * overwriting the oldest item) advance head, so that's done by CAS.
+     */
+    private AtomicLong head, tail;
+    private AtomicLong lost;
+    private volatile int highWater;
+
+    /**
+     * Construct a new channel.
+     * @param capacity  Buffer size.
+     * @param wait      How the reader waits for data.
+     */
+    public SpscChannel(int capacity, WaitStrategy wait) {
+        super(wait);
+        if (capacity < 1)
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        buffer = new AtomicReferenceArray<T>(capacity);
+        this.capacity = capacity;
+        head = new AtomicLong(0);
+        tail = new AtomicLong(0);
+        lost = new AtomicLong(0);
+        highWater = 0;
+    }
+
+    /**
+     * Write a single item to this channel. Must only be called from one
+     * thread.
+     * @param item      Item to write.
+     * @return          Whether or not overwriting happened.
+     */
+    public boolean write(T item) {
+        long t = tail.get();
+        long h = head.get();
+        boolean lost = false;
+        if (t - h >= capacity) {
+            /* full; drop the oldest, unless the reader just took it */
+            lost = head.compareAndSet(h, h + 1);
+            if (lost) {
+                this.lost.lazySet(this.lost.get() + 1);
+                /* the reader can no longer get at it, so it's ours */
+                dropped(buffer.get((int) (h % capacity)));
+            }
+        }
+        buffer.set((int) (t % capacity), item);
+        tail.set(t + 1);
+        int occupancy = (int) (t + 1 - head.get());
+        if (occupancy > highWater)
+            highWater = occupancy;
+        wake();
+        return lost;
+    }
+
+    protected Object take() {
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get())
+                return NONE;
+            T ret = buffer.get((int) (h % capacity));
+            /* if this fails, the writer overwrote it; try again */
+            if (head.compareAndSet(h, h + 1))
+                return ret;
+        }
+    }
+
+    public long getWritten() {
+        return tail.get();
+    }
+
+    public long getLost() {
+        return lost.get();
+    }
+
+    public int getHighWater() {
+        return highWater;
+    }
+
+    protected boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+}
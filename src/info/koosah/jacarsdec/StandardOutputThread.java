@@ -7,6 +7,8 @@
 package info.koosah.jacarsdec;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TimeZone;
 
 /**
@@ -16,101 +18,128 @@ import java.util.TimeZone;
  *
  */
 public class StandardOutputThread extends Thread {
-    private Channel<DemodMessage> in;
+    private MessageChannel<DemodMessage> in;
     private DemodMessage demodMessage;
+    private StringBuilder out;
+
+    /* most messages we take from our input in one go */
+    private static final int BATCH_SIZE = 64;
 
     private static final SimpleDateFormat LOCAL = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'J'");
     private static final SimpleDateFormat UTC = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
     static {
         UTC.setTimeZone(TimeZone.getTimeZone("GMT"));
     }
+    private static final String NL = System.lineSeparator();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
 
-    public StandardOutputThread(Channel<DemodMessage> in) {
+    public StandardOutputThread(MessageChannel<DemodMessage> in) {
         this.in = in;
+        out = new StringBuilder(1024);
     }
 
     public void run() {
         demodMessage = null;
+        List<DemodMessage> batch = new ArrayList<DemodMessage>(BATCH_SIZE);
         while (true) {
+            batch.clear();
             try {
-                demodMessage = in.read();
+                in.drainTo(batch, BATCH_SIZE);
             } catch (InterruptedException e) {
                 break;
             }
-            if (demodMessage == null)
-                break;
-            printMessage();
+            for (DemodMessage m: batch) {
+                if (m == null)
+                    return;
+                demodMessage = m;
+                printMessage();
+            }
         }
     }
 
     private void printMessage() {
+        out.setLength(0);
+        renderMessage();
+        System.out.print(out);
+    }
+
+    /*
+     * Everything gets formatted into a buffer, so it can be written with
+     * a single call. This is a lot cheaper than a call per character,
+     * since each such call locks (and may flush) System.out.
+     */
+    private void renderMessage() {
         /* our standard header */
-        System.out.format("%n[#%d E:%d %s %s ----------]%n",
-                demodMessage.getChannel(),
-                demodMessage.getErrors(),
-                LOCAL.format(demodMessage.getTime()),
-                UTC.format(demodMessage.getTime()));
+        out.append(NL).append("[#").append(demodMessage.getChannel())
+            .append(" E:").append(demodMessage.getErrors()).append(' ')
+            .append(LOCAL.format(demodMessage.getTime())).append(' ')
+            .append(UTC.format(demodMessage.getTime()))
+            .append(" ----------]").append(NL);
 
         /* attempt to parse message, do a hex dump if we can't */
         if (!demodMessage.parse()) {
-            System.out.print("Unparseable message :");
+            out.append("Unparseable message :");
             int i = 0;
             for (byte b: demodMessage.getRaw()) {
-                System.out.format(i++ % 24 == 0 ? "%n%02x" : " %02x", b);
+                if (i++ % 24 == 0)
+                    out.append(NL);
+                else
+                    out.append(' ');
+                out.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
             }
-            System.out.println();
+            out.append(NL);
             return;
         }
 
         /* the ACARS header */
         if (demodMessage.getMode() < 0x5d) {
-            System.out.print("Aircraft registration: ");
+            out.append("Aircraft registration: ");
             seeString(demodMessage.getRegistration());
-            System.out.print(" Flight ID: ");
+            out.append(" Flight ID: ");
             seeMsgIdFlt(demodMessage.getFlightId());
-            System.out.println();
+            out.append(NL);
         }
 
-        System.out.print("Mode: ");
+        out.append("Mode: ");
         seeChar(demodMessage.getMode());
-        System.out.println();
+        out.append(NL);
 
-        System.out.print("Message label: ");
+        out.append("Message label: ");
         seeString(demodMessage.getLabel());
-        System.out.print(" (");
-        System.out.print(demodMessage.getLabelExplanation());
-        System.out.println(")");
+        out.append(" (");
+        out.append(demodMessage.getLabelExplanation());
+        out.append(")").append(NL);
 
-        System.out.print("Block ID: ");
+        out.append("Block ID: ");
         seeChar(demodMessage.getBlockId());
-        System.out.print(" Acknowledge: ");
+        out.append(" Acknowledge: ");
         seeChar(demodMessage.getAcknowledge());
-        System.out.println();
+        out.append(NL);
 
-        System.out.print("Message ID: ");
+        out.append("Message ID: ");
         seeMsgIdFlt(demodMessage.getMessageId());
-        System.out.println();
+        out.append(NL);
 
         if (demodMessage.getSource() != null) {
-            System.out.print("Message source: ");
+            out.append("Message source: ");
             seeString(demodMessage.getSource());
-            System.out.print(" (");
-            System.out.print(demodMessage.getSourceExplanation());
-            System.out.println(")");
+            out.append(" (");
+            out.append(demodMessage.getSourceExplanation());
+            out.append(")").append(NL);
         }
 
         /* the message body */
-        System.out.println("Message :");
+        out.append("Message :").append(NL);
         seeBuffer(demodMessage.getMessage());
     }
 
     /* this assumes ASCII (which is what ACARS uses) */
     private void seeChar(char c) {
         if (c < '\040' || c == '\177') {
-            System.out.print('^');
+            out.append('^');
             c ^= 0100;
         }
-        System.out.print(c);
+        out.append(c);
     }
 
     private void seeString(String s) {
@@ -121,9 +150,9 @@ public class StandardOutputThread extends Thread {
 
     private void seeMsgIdFlt(String s) {
         if (s == null)
-            System.out.print("(none)");
+            out.append("(none)");
         else if (s.isEmpty())
-            System.out.print("(empty)");
+            out.append("(empty)");
         else
             seeString(s);
     }
@@ -136,7 +165,7 @@ public class StandardOutputThread extends Thread {
             switch(c) {
             case '\t':
                 /* tabs get passed verbatim */
-                System.out.print(c);
+                out.append(c);
                 break;
             case '\r':
                 /* carriage return before line feed or at end gets deleted */
@@ -146,13 +175,13 @@ public class StandardOutputThread extends Thread {
             case '\n':
                 /* delete LF at end, map others to newline */
                 if (i != last)
-                    System.out.println();
+                    out.append(NL);
                 break;
             default:
                 seeChar(c);
                 break;
             }
         }
-        System.out.println();
+        out.append(NL);
     }
 }
@@ -0,0 +1,150 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads raw signed 16-bit little-endian samples, as written by rtl_fm
+ * and the like, from standard input, a named pipe, or a TCP connection.
+ * Standard input and pipes are read until they end; a TCP listener
+ * accepts one connection at a time, and goes back to waiting for another
+ * when one ends, so the sender may be restarted. A pipe makes its writer
+ * wait when we fall behind, so nothing need be lost; a TCP sender is
+ * treated like a sound card, as it's typically a receiver elsewhere that
+ * shouldn't be held up.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class StreamSource extends PcmSource {
+    private String source;
+    private ServerSocketChannel listener;
+    private ReadableByteChannel in;
+    private Object peer;
+    private boolean opened;
+    private ByteBuffer bbuf;
+    private long time;
+
+    /**
+     * Open a stream. A TCP listener starts listening now, so that a bad
+     * address gets reported at once.
+     * @param source    "-" for standard input, tcp:[host:]port to listen
+     *                  on, or else a file (e.g. named pipe).
+     * @param channels  Number of channels in the stream.
+     * @param rate      Sample rate (Hz).
+     */
+    public StreamSource(String source, int channels, float rate) throws IOException {
+        super(channels, rate);
+        this.source = source;
+        if (source.startsWith("tcp:")) {
+            listener = ServerSocketChannel.open();
+            listener.bind(ApiServer.parseAddress(source.substring(4)));
+        } else {
+            listener = null;
+        }
+        in = null;
+        peer = null;
+        opened = false;
+        bbuf = ByteBuffer.allocateDirect(0);
+        time = 0;
+    }
+
+    public String getName() {
+        if (listener != null) {
+            try {
+                InetSocketAddress addr = (InetSocketAddress) listener.getLocalAddress();
+                return "TCP port " + addr.getPort();
+            } catch (IOException e) {
+                return source;
+            }
+        }
+        return source.equals("-") ? "standard input" : source;
+    }
+
+    public boolean isLive() {
+        return listener != null;
+    }
+
+    public int read(float[][] out, int[] select) throws IOException {
+        int size = out[0].length * frameSize;
+        if (bbuf.capacity() != size)
+            bbuf = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        bbuf.clear();
+        while (bbuf.hasRemaining()) {
+            if (in == null && !open())
+                break;
+            /* pipes and sockets return whatever they happen to have */
+            int n;
+            try {
+                n = in.read(bbuf);
+            } catch (IOException e) {
+                if (listener == null)
+                    throw e;
+                /* the sender broke off; wait for it to come back */
+                System.err.format("%s: lost connection from %s - %s%n", Main.MYNAME, peer, Main.getMessage(e));
+                n = -1;
+            }
+            if (n < 0) {
+                in.close();
+                in = null;
+                /* a new sender starts on a frame boundary */
+                bbuf.position(bbuf.position() - bbuf.position() % frameSize);
+                /* pass on what we have, rather than wait for a new sender */
+                if (listener == null || bbuf.position() >= frameSize)
+                    break;
+            }
+        }
+        int frames = bbuf.position() / frameSize;
+        if (frames == 0)
+            return -1;
+        time = System.currentTimeMillis() - Math.round(frames * 1000.0 / rate);
+        bbuf.flip();
+        deinterleave(bbuf, frames, out, select, 0);
+        return frames;
+    }
+
+    /* returns false if there's nothing more to read */
+    private boolean open() throws IOException {
+        if (listener != null) {
+            SocketChannel conn = listener.accept();
+            peer = conn.socket().getRemoteSocketAddress();
+            in = conn;
+            return true;
+        }
+        if (opened)
+            return false;
+        opened = true;
+        if (source.equals("-"))
+            in = new FileInputStream(FileDescriptor.in).getChannel();
+        else
+            in = FileChannel.open(Paths.get(source), StandardOpenOption.READ);
+        return true;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void close() throws IOException {
+        if (in != null)
+            in.close();
+        if (listener != null)
+            listener.close();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates a test signal: a series of ACARS messages, MSK modulated, one
+ * per second, identical on every channel. The same parameters always get
+ * the same samples, which makes for repeatable benchmarks, and for
+ * checking that the whole pipeline works without a receiver.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class SyntheticSource implements SampleSource {
+    private int channels;
+    private float rate;
+    private int count;
+    private long frame, startTime, time;
+    private int current;
+    private double[] phases, freqs;
+
+    private static final int BAUD = 2400;
+
+    /* where messages start, in bits; whole numbers keep them aligned alike */
+    private static final double LEAD = BAUD / 4 + 0.25;
+    private static final double SLOT = BAUD;
+
+    private static final double AMPLITUDE = 0.5;
+
+    private static final int SYN = 0x16;
+    private static final int SOH = 0x01;
+    private static final int STX = 0x02;
+    private static final int ETX = 0x03;
+    private static final int NAK = 0x15;
+    private static final int DEL = 0x7f;
+
+    /**
+     * @param rate      Sample rate (Hz).
+     * @param channels  Number of channels.
+     * @param count     Number of messages to generate.
+     */
+    public SyntheticSource(float rate, int channels, int count) {
+        if (rate < 2 * BAUD || channels < 1 || count < 0)
+            throw new IllegalArgumentException("invalid rate, channels, or count for test signal");
+        this.rate = rate;
+        this.channels = channels;
+        this.count = count;
+        frame = time = 0;
+        startTime = System.currentTimeMillis();
+        current = -1;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public float getRate() {
+        return rate;
+    }
+
+    public String getName() {
+        return String.format("test signal of %d messages", count);
+    }
+
+    public boolean isLive() {
+        return false;
+    }
+
+    public int read(float[][] out, int[] select) throws IOException {
+        long end = (long) Math.ceil((LEAD + count * SLOT) / BAUD * rate);
+        if (frame >= end)
+            return -1;
+        int frames = (int) Math.min(out[0].length, end - frame);
+        float[] first = out[0];
+        for (int i=0; i<frames; i++)
+            first[i] = sample(frame + i);
+        for (int i=1; i<out.length; i++)
+            System.arraycopy(first, 0, out[i], 0, frames);
+        time = startTime + Math.round(frame * 1000.0 / rate);
+        frame += frames;
+        return frames;
+    }
+
+    private float sample(long n) {
+        /* everything in units of bits */
+        double t = n * BAUD / (double) rate - LEAD;
+        if (t < 0.0)
+            return 0.0f;
+        int k = (int) (t / SLOT);
+        if (k >= count)
+            return 0.0f;
+        if (k != current) {
+            modulate(message(k));
+            current = k;
+        }
+        double dt = t - k * SLOT;
+        int bit = (int) dt;
+        if (bit >= freqs.length)
+            return 0.0f;
+        return (float) (AMPLITUDE * Math.sin(phases[bit] + 2.0 * Math.PI * freqs[bit] / BAUD * (dt - bit)));
+    }
+
+    /* work out the frequency and starting phase of each bit */
+    private void modulate(byte[] message) {
+        int nbits = message.length * 8;
+        phases = new double[nbits];
+        freqs = new double[nbits];
+        double phase = 0.0;
+        int prev = 1;
+        for (int i=0; i<nbits; i++) {
+            int bit = (message[i / 8] >> (i % 8)) & 1;
+            /* a one is sent as no change, at the higher frequency */
+            freqs[i] = bit == prev ? BAUD : BAUD / 2;
+            prev = bit;
+            phases[i] = phase;
+            phase = (phase + 2.0 * Math.PI * freqs[i] / BAUD) % (2.0 * Math.PI);
+        }
+    }
+
+    /* the k-th message, as sent, from pre-key to trailer */
+    private byte[] message(int k) {
+        List<Integer> bytes = new ArrayList<Integer>();
+        for (int i=0; i<16; i++)
+            bytes.add(0xff);
+        bytes.add(parity('+'));
+        bytes.add(parity('*'));
+        bytes.add(SYN);
+        bytes.add(SYN);
+        bytes.add(parity(SOH));
+        List<Integer> body = new ArrayList<Integer>();
+        String header = String.format("2.N%05d", k % 100000);
+        for (char c : header.toCharArray())
+            body.add(parity(c));
+        body.add(parity(NAK));
+        body.add(parity('H'));
+        body.add(parity('1'));
+        body.add(parity('1'));
+        body.add(parity(STX));
+        String text = String.format("M%02dAJT%04dJACARSDEC TEST MESSAGE %d", k % 100, k % 10000, k);
+        for (char c : text.toCharArray())
+            body.add(parity(c));
+        body.add(parity(ETX));
+        AcarsCrc crc = new AcarsCrc();
+        for (int b : body)
+            crc.update((byte) b);
+        bytes.addAll(body);
+        int c = crc.getValue();
+        bytes.add(c & 0xff);
+        bytes.add((c >> 8) & 0xff);
+        bytes.add(parity(DEL));
+        for (int i=0; i<4; i++)
+            bytes.add(0xff);
+        byte[] ret = new byte[bytes.size()];
+        for (int i=0; i<ret.length; i++)
+            ret[i] = (byte) (int) bytes.get(i);
+        return ret;
+    }
+
+    /* ACARS characters have odd parity */
+    private static int parity(int c) {
+        c &= 0x7f;
+        return Integer.bitCount(c) % 2 == 0 ? c | 0x80 : c;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void close() {
+        /* nothing to do */
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An on-disk index from short keys (registrations, flight IDs, labels) to
+ * the offsets of the archive records that contain them. The file holds
+ * a count of keys, then a table of fixed-size entries sorted by key, each
+ * giving where that key's postings (a sorted run of offsets) start and
+ * how many there are, then the postings themselves. It is memory-mapped
+ * and binary-searched, so lookups read only a few pages.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class TermIndex {
+    /* keys are stored as this many ASCII bytes, zero-padded */
+    private static final int KEY_LEN = 8;
+    private static final int ENTRY_LEN = KEY_LEN + 8;
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    private MappedByteBuffer buf;
+    private int nkeys;
+
+    /**
+     * Open an index written by a Builder.
+     * @param file      Index file.
+     */
+    public TermIndex(File file) throws IOException {
+        try (FileChannel chan = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buf = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+        }
+        nkeys = buf.getInt(0);
+    }
+
+    /**
+     * Look up a key.
+     * @param key       Key, as returned by normalize().
+     * @return          Offsets of the records containing it, in order.
+     */
+    public int[] lookup(String key) {
+        byte[] k = encode(key);
+        int lo = 0, hi = nkeys - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(4 + mid * ENTRY_LEN, k);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                int pos = 4 + mid * ENTRY_LEN + KEY_LEN;
+                int start = buf.getInt(pos);
+                int count = buf.getInt(pos + 4);
+                int[] ret = new int[count];
+                int base = 4 + nkeys * ENTRY_LEN + start * 4;
+                for (int i=0; i<count; i++)
+                    ret[i] = buf.getInt(base + i * 4);
+                return ret;
+            }
+        }
+        return new int[0];
+    }
+
+    private int compare(int pos, byte[] key) {
+        for (int i=0; i<KEY_LEN; i++) {
+            int c = Byte.compare(buf.get(pos + i), key[i]);
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    /**
+     * Put a field value into the form used as a key: leading dots (which
+     * pad short registrations) and surrounding space removed, upper case,
+     * and no longer than keys are stored.
+     * @param value     Value to normalize (may be null).
+     * @return          Key, or null if there's nothing to index.
+     */
+    public static String normalize(String value) {
+        if (value == null)
+            return null;
+        int i = 0;
+        while (i < value.length() && (value.charAt(i) == '.' || value.charAt(i) == ' '))
+            i++;
+        String ret = value.substring(i).trim().toUpperCase();
+        if (ret.isEmpty())
+            return null;
+        return ret.length() > KEY_LEN ? ret.substring(0, KEY_LEN) : ret;
+    }
+
+    private static byte[] encode(String key) {
+        return Arrays.copyOf(key.getBytes(CHARSET), KEY_LEN);
+    }
+
+    /**
+     * Collects keys and offsets in memory, for writing out as an index.
+     */
+    public static class Builder {
+        private HashMap<String, Postings> terms;
+        private int total;
+
+        public Builder() {
+            terms = new HashMap<String, Postings>();
+            total = 0;
+        }
+
+        /**
+         * Note that a record contains a value. Records must be added in
+         * order of offset.
+         * @param value     Value (may be null, in which case it's ignored).
+         * @param offset    Offset of record.
+         */
+        public void add(String value, int offset) {
+            String key = normalize(value);
+            if (key == null)
+                return;
+            Postings p = terms.get(key);
+            if (p == null) {
+                p = new Postings();
+                terms.put(key, p);
+            }
+            p.add(offset);
+            total++;
+        }
+
+        /**
+         * Write the index.
+         * @param file      File to write.
+         */
+        public void write(File file) throws IOException {
+            String[] keys = terms.keySet().toArray(new String[terms.size()]);
+            Arrays.sort(keys);
+            ByteBuffer out = ByteBuffer.allocate(4 + keys.length * ENTRY_LEN + total * 4);
+            out.putInt(keys.length);
+            int start = 0;
+            for (String key: keys) {
+                Postings p = terms.get(key);
+                out.put(encode(key)).putInt(start).putInt(p.count);
+                start += p.count;
+            }
+            for (String key: keys) {
+                Postings p = terms.get(key);
+                for (int i=0; i<p.count; i++)
+                    out.putInt(p.offsets[i]);
+            }
+            out.flip();
+            Archive.writeFile(file, out);
+        }
+    }
+
+    private static class Postings {
+        public int[] offsets;
+        public int count;
+
+        public Postings() {
+            offsets = new int[4];
+            count = 0;
+        }
+
+        public void add(int offset) {
+            if (count == offsets.length)
+                offsets = Arrays.copyOf(offsets, count * 2);
+            offsets[count++] = offset;
+        }
+    }
+}
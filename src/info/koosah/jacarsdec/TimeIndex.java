@@ -0,0 +1,151 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An on-disk index from time received to the offsets of archive records.
+ * The file holds a count, then fixed-size (time, offset) entries sorted
+ * by time. It is memory-mapped and binary-searched.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class TimeIndex {
+    private static final int ENTRY_LEN = 12;
+
+    private MappedByteBuffer buf;
+    private int n;
+
+    /**
+     * Open an index written by a Builder.
+     * @param file      Index file.
+     */
+    public TimeIndex(File file) throws IOException {
+        try (FileChannel chan = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buf = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+        }
+        n = buf.getInt(0);
+    }
+
+    /**
+     * Get the number of records indexed.
+     * @return          Count.
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Get the earliest time indexed. The index must not be empty.
+     * @return          Time (ms since the epoch).
+     */
+    public long first() {
+        return time(0);
+    }
+
+    /**
+     * Get the latest time indexed. The index must not be empty.
+     * @return          Time (ms since the epoch).
+     */
+    public long last() {
+        return time(n - 1);
+    }
+
+    /**
+     * Find the records in a time range.
+     * @param from      Start of range, inclusive (ms since the epoch).
+     * @param to        End of range, inclusive (ms since the epoch).
+     * @return          Offsets of the records, in order of offset.
+     */
+    public int[] range(long from, long to) {
+        /* find the first entry at or after from */
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (time(mid) < from)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        int end = lo;
+        while (end < n && time(end) <= to)
+            end++;
+        int[] ret = new int[end - lo];
+        for (int i=lo; i<end; i++)
+            ret[i - lo] = buf.getInt(4 + i * ENTRY_LEN + 8);
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    private long time(int i) {
+        return buf.getLong(4 + i * ENTRY_LEN);
+    }
+
+    /**
+     * Collects times and offsets in memory, for writing out as an index.
+     */
+    public static class Builder {
+        private long[] times;
+        private int[] offsets;
+        private int count;
+
+        public Builder() {
+            times = new long[1024];
+            offsets = new int[1024];
+            count = 0;
+        }
+
+        /**
+         * Note when a record was received.
+         * @param time      Time (ms since the epoch).
+         * @param offset    Offset of record.
+         */
+        public void add(long time, int offset) {
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            times[count] = time;
+            offsets[count] = offset;
+            count++;
+        }
+
+        /**
+         * Get the number of records noted so far.
+         * @return          Count.
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Write the index.
+         * @param file      File to write.
+         */
+        public void write(File file) throws IOException {
+            /* records arrive nearly, but not quite, in time order */
+            Integer[] order = new Integer[count];
+            for (int i=0; i<count; i++)
+                order[i] = i;
+            Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+            ByteBuffer out = ByteBuffer.allocate(4 + count * ENTRY_LEN);
+            out.putInt(count);
+            for (int i: order)
+                out.putLong(times[i]).putInt(offsets[i]);
+            out.flip();
+            Archive.writeFile(file, out);
+        }
+    }
+}
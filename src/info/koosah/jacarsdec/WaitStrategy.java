@@ -0,0 +1,23 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+/**
+ * How the reader of a lock-free channel waits for an empty channel to get
+ * data.
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public enum WaitStrategy {
+    /** Park the thread until a writer wakes it. */
+    PARK,
+    /** Busy-wait for a while, then park. */
+    SPIN,
+    /** Repeatedly yield the processor. */
+    YIELD
+};
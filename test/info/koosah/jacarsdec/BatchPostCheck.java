@@ -0,0 +1,92 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Checks that batched POSTs cut down on the number of requests made, by
+ * having HttpOutputThread send the same messages to a stub server that
+ * counts what it gets, first one per POST and then in batches. Exits
+ * with a nonzero status if the counts aren't as expected. Run it with
+ * the compiled classes and lib/*.jar on the class path, or via "ant
+ * check".
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class BatchPostCheck {
+    private static final int MESSAGES = 500;
+    private static final int BATCH = 50;
+
+    private static AtomicInteger requests = new AtomicInteger(0);
+    private static AtomicInteger received = new AtomicInteger(0);
+
+    public static void main(String[] args) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream in = exchange.getRequestBody(); JsonReader rdr = Json.createReader(in)) {
+                JsonStructure json = rdr.read();
+                received.addAndGet(json instanceof JsonArray ? ((JsonArray) json).size() : 1);
+            }
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        String url = String.format("http://%s:%d/", server.getAddress().getHostString(), server.getAddress().getPort());
+
+        boolean ok = check(url, 1, MESSAGES);
+        ok &= check(url, BATCH, MESSAGES / BATCH);
+        server.stop(0);
+        System.out.println(ok ? "PASSED" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean check(String url, int batchSize, int expected) throws Exception {
+        requests.set(0);
+        received.set(0);
+        Properties props = new Properties();
+        props.setProperty("url", url);
+        props.setProperty("auth", "");
+        props.setProperty("batch.size", Integer.toString(batchSize));
+        /* long enough that only full batches (and the last) get sent */
+        props.setProperty("batch.time", "60000");
+
+        /* everything's queued up first, so batches fill at once */
+        Channel<DemodMessage> chan = new Channel<DemodMessage>(MESSAGES + 1);
+        for (int i=0; i<MESSAGES; i++)
+            chan.write(message(i));
+        chan.write(null);
+        HttpOutputThread poster = new HttpOutputThread(chan, props);
+        poster.start();
+        poster.join(60000);
+
+        boolean ok = !poster.isAlive() && requests.get() == expected && received.get() == MESSAGES;
+        System.out.format("batch.size=%d: %d messages in %d requests (expected %d in %d) - %s%n",
+                batchSize, received.get(), requests.get(), MESSAGES, expected, ok ? "ok" : "WRONG");
+        return ok;
+    }
+
+    private static DemodMessage message(int i) {
+        String raw = String.format("2.N%05d\u0015H11\u0002M01AJT0001CHECK MESSAGE %d\u0003", i, i);
+        return new DemodMessage(new Date(), 0, 0, raw.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stress checks MpscChannel under each WaitStrategy, with several
+ * producers writing flat out into a small channel so that plenty gets
+ * dropped. Checks that no item is delivered (or dropped) twice, that
+ * each producer's items come out in the order it wrote them, and that
+ * for each producer what it wrote is all accounted for as delivered or
+ * lost. Exits with a nonzero status if anything is amiss. Run it with
+ * the compiled classes on the class path, or via "ant check".
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class MpscChannelCheck {
+    private static final int PRODUCERS = 4;
+    private static final int ITEMS = 250000;  /* per producer */
+    private static final int CAPACITY = 256;
+    private static final int BATCH = 16;
+
+    /* how long anything may take before we call it a hang (ms) */
+    private static final long TIMEOUT = 60000;
+
+    /* what became of each item */
+    private static final int DELIVERED = 1;
+    private static final int DROPPED = 2;
+
+    private static boolean ok = true;
+
+    public static void main(String[] args) throws Exception {
+        for (WaitStrategy wait : WaitStrategy.values())
+            stress(wait);
+        System.out.println(ok ? "PASSED" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void check(boolean cond, String format, Object... args) {
+        System.out.format(format + " - %s%n", concat(args, cond ? "ok" : "WRONG"));
+        ok &= cond;
+    }
+
+    private static Object[] concat(Object[] args, Object last) {
+        Object[] ret = new Object[args.length + 1];
+        System.arraycopy(args, 0, ret, 0, args.length);
+        ret[args.length] = last;
+        return ret;
+    }
+
+    /* items carry the producer in the high half, the sequence in the low */
+    private static long item(int producer, int seq) {
+        return ((long) producer << 32) | seq;
+    }
+
+    private static int producerOf(long item) {
+        return (int) (item >>> 32);
+    }
+
+    private static int seqOf(long item) {
+        return (int) item;
+    }
+
+    private static void stress(WaitStrategy wait) throws Exception {
+        MpscChannel<Long> chan = new MpscChannel<Long>(CAPACITY, wait);
+        AtomicIntegerArray fate = new AtomicIntegerArray(PRODUCERS * ITEMS);
+        AtomicLong twice = new AtomicLong(0);
+        long[] dropped = new long[PRODUCERS];
+        chan.setDropHandler(item -> {
+            int p = producerOf(item);
+            if (fate.getAndAdd(p * ITEMS + seqOf(item), DROPPED) != 0)
+                twice.incrementAndGet();
+            synchronized (dropped) {
+                dropped[p]++;
+            }
+        });
+
+        long[] delivered = new long[PRODUCERS];
+        boolean[] ordered = { true };
+        Thread consumer = new Thread(() -> {
+            int[] last = new int[PRODUCERS];
+            for (int p=0; p<PRODUCERS; p++)
+                last[p] = -1;
+            List<Long> batch = new ArrayList<Long>(BATCH);
+            try {
+                while (true) {
+                    batch.clear();
+                    chan.drainTo(batch, BATCH);
+                    for (Long item : batch) {
+                        if (item == null)
+                            return;
+                        int p = producerOf(item), seq = seqOf(item);
+                        if (fate.getAndAdd(p * ITEMS + seq, DELIVERED) != 0)
+                            twice.incrementAndGet();
+                        if (seq <= last[p])
+                            ordered[0] = false;
+                        last[p] = seq;
+                        delivered[p]++;
+                    }
+                }
+            } catch (InterruptedException e) {
+                /* checked below */
+            }
+        });
+        consumer.start();
+
+        List<MpscChannel<Long>.Producer> handles = new ArrayList<MpscChannel<Long>.Producer>();
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int p=0; p<PRODUCERS; p++) {
+            MpscChannel<Long>.Producer handle = chan.producer(p);
+            handles.add(handle);
+            Thread producer = new Thread(() -> {
+                int id = handle.getId();
+                for (int seq=0; seq<ITEMS; seq++)
+                    handle.write(item(id, seq));
+            });
+            producers.add(producer);
+        }
+        for (Thread producer : producers)
+            producer.start();
+        for (Thread producer : producers)
+            producer.join(TIMEOUT);
+
+        /* the end marker may cost another drop, blamed on no producer */
+        long lostBefore = chan.getLost();
+        chan.write(null);
+        consumer.join(TIMEOUT);
+
+        String name = wait.toString().toLowerCase();
+        check(!consumer.isAlive(), "%s: consumer got the end marker", name);
+        check(twice.get() == 0, "%s: %d items seen twice", name, twice.get());
+        check(ordered[0], "%s: each producer's items delivered in order", name);
+        long producerLost = 0, totalDropped = 0;
+        synchronized (dropped) {
+            for (int p=0; p<PRODUCERS; p++) {
+                MpscChannel<Long>.Producer handle = handles.get(p);
+                check(handle.getWritten() == ITEMS && delivered[p] + dropped[p] == ITEMS,
+                        "%s: producer %d wrote %d = %d delivered + %d lost", name, p,
+                        handle.getWritten(), delivered[p], dropped[p]);
+                producerLost += handle.getLost();
+                totalDropped += dropped[p];
+            }
+        }
+        check(producerLost == lostBefore,
+                "%s: producers were blamed for %d of %d lost", name, producerLost, lostBefore);
+        check(chan.getLost() == totalDropped && chan.getWritten() == (long) PRODUCERS * ITEMS + 1,
+                "%s: channel counted %d written, %d lost", name, chan.getWritten() - 1, chan.getLost());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * This software is distributed under the Creative Commons Attribution 4.0
+ * International license. See LICENSE.TXT in the main directory of this
+ * repository for more information.
+ */
+
+package info.koosah.jacarsdec;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks SpscChannel under each WaitStrategy: that items come out in the
+ * order they went in, that every item written is either delivered or
+ * counted as lost (and passed to the drop handler), and that the null
+ * marking the end of input always gets through, even to a full channel.
+ * Exits with a nonzero status if anything is amiss. Run it with the
+ * compiled classes on the class path, or via "ant check".
+ *
+ * @author David Barts <david.w.barts@gmail.com>
+ *
+ */
+public class SpscChannelCheck {
+    private static final int ITEMS = 1000000;
+    private static final int CAPACITY = 64;
+    private static final int BATCH = 16;
+
+    /* how long anything may take before we call it a hang (ms) */
+    private static final long TIMEOUT = 60000;
+
+    private static boolean ok = true;
+
+    public static void main(String[] args) throws Exception {
+        for (WaitStrategy wait : WaitStrategy.values()) {
+            lossless(wait);
+            stream(wait);
+            full(wait);
+            timeout(wait);
+        }
+        System.out.println(ok ? "PASSED" : "FAILED");
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static void check(boolean cond, String format, Object... args) {
+        System.out.format(format + " - %s%n", concat(args, cond ? "ok" : "WRONG"));
+        ok &= cond;
+    }
+
+    private static Object[] concat(Object[] args, Object last) {
+        Object[] ret = new Object[args.length + 1];
+        System.arraycopy(args, 0, ret, 0, args.length);
+        ret[args.length] = last;
+        return ret;
+    }
+
+    /* a writer that never gets more than a channel's worth ahead */
+    private static void lossless(WaitStrategy wait) throws Exception {
+        SpscChannel<Integer> chan = new SpscChannel<Integer>(CAPACITY, wait);
+        /* one slot is kept for the end marker */
+        Semaphore room = new Semaphore(CAPACITY - 1);
+        int[] next = { 0 };
+        Thread reader = new Thread(() -> {
+            List<Integer> batch = new ArrayList<Integer>(BATCH);
+            try {
+                while (true) {
+                    batch.clear();
+                    chan.drainTo(batch, BATCH);
+                    for (Integer item : batch) {
+                        if (item == null || item != next[0])
+                            return;
+                        next[0]++;
+                        room.release();
+                    }
+                }
+            } catch (InterruptedException e) {
+                /* checked below */
+            }
+        });
+        reader.start();
+        for (int i=0; i<ITEMS; i++) {
+            room.acquire();
+            chan.write(i);
+        }
+        chan.write(null);
+        reader.join(TIMEOUT);
+
+        String name = wait.toString().toLowerCase();
+        check(!reader.isAlive() && next[0] == ITEMS && chan.getLost() == 0,
+                "%s: all %d of %d items delivered in order, %d lost", name, next[0], ITEMS, chan.getLost());
+    }
+
+    /* a writer going flat out, against a reader that may fall behind */
+    private static void stream(WaitStrategy wait) throws Exception {
+        SpscChannel<Integer> chan = new SpscChannel<Integer>(CAPACITY, wait);
+        AtomicLong dropped = new AtomicLong(0);
+        chan.setDropHandler(item -> dropped.incrementAndGet());
+        long[] delivered = new long[1];
+        boolean[] ordered = { true };
+        Thread reader = new Thread(() -> {
+            List<Integer> batch = new ArrayList<Integer>(BATCH);
+            int last = -1;
+            try {
+                while (true) {
+                    batch.clear();
+                    chan.drainTo(batch, BATCH);
+                    for (Integer item : batch) {
+                        if (item == null)
+                            return;
+                        if (item <= last)
+                            ordered[0] = false;
+                        last = item;
+                        delivered[0]++;
+                    }
+                }
+            } catch (InterruptedException e) {
+                /* checked below */
+            }
+        });
+        reader.start();
+        for (int i=0; i<ITEMS; i++)
+            chan.write(i);
+        chan.write(null);
+        reader.join(TIMEOUT);
+
+        String name = wait.toString().toLowerCase();
+        check(!reader.isAlive(), "%s: reader got the end marker", name);
+        check(ordered[0], "%s: %d of %d items delivered, in order", name, delivered[0], ITEMS);
+        check(delivered[0] + chan.getLost() == ITEMS && chan.getWritten() == ITEMS + 1,
+                "%s: %d written = %d delivered + %d lost", name, chan.getWritten() - 1, delivered[0], chan.getLost());
+        check(dropped.get() == chan.getLost(), "%s: drop handler saw %d", name, dropped.get());
+    }
+
+    /* filling the channel well past capacity before anything gets read */
+    private static void full(WaitStrategy wait) throws Exception {
+        SpscChannel<Integer> chan = new SpscChannel<Integer>(CAPACITY, wait);
+        int items = 3 * CAPACITY;
+        for (int i=0; i<items; i++)
+            chan.write(i);
+        chan.write(null);
+        List<Integer> got = new ArrayList<Integer>();
+        Thread reader = new Thread(() -> {
+            try {
+                Integer item;
+                while ((item = chan.read()) != null)
+                    got.add(item);
+            } catch (InterruptedException e) {
+                /* checked below */
+            }
+        });
+        reader.start();
+        reader.join(TIMEOUT);
+
+        /* the null takes a slot, so one fewer of the newest items is left */
+        boolean newest = got.size() == CAPACITY - 1;
+        for (int i=0; newest && i<got.size(); i++)
+            newest = got.get(i) == items - CAPACITY + 1 + i;
+        String name = wait.toString().toLowerCase();
+        check(!reader.isAlive(), "%s: end marker got through a full channel", name);
+        check(newest && chan.getLost() == items - got.size(),
+                "%s: kept the newest %d of %d, lost %d", name, got.size(), items, chan.getLost());
+    }
+
+    /* a timed read of an empty channel gives up */
+    private static void timeout(WaitStrategy wait) throws Exception {
+        SpscChannel<Integer> chan = new SpscChannel<Integer>(CAPACITY, wait);
+        List<Integer> got = new ArrayList<Integer>();
+        long start = System.nanoTime();
+        int n = chan.drainTo(got, BATCH, 50);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        check(n == 0 && got.isEmpty() && elapsed >= 49 && elapsed < TIMEOUT,
+                "%s: empty timed read returned %d after %d ms", wait.toString().toLowerCase(), n, elapsed);
+    }
+}